@@ -0,0 +1,80 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Files and helpers shared by the benchmarks.
+ */
+public class BenchmarkSupport {
+	
+	/** System property with the path to the SporeModder FX install used by the benchmarks. */
+	public static final String INSTALL_PROPERTY = "sporemodder.bench.install";
+	
+	/**
+	 * Returns the SporeModder FX install used by the benchmarks, by default the `SporeModder FX` folder of the project.
+	 * @return
+	 */
+	public static Path getInstall() {
+		return Paths.get(System.getProperty(INSTALL_PROPERTY, "SporeModder FX"));
+	}
+	
+	public static void copyFolder(Path source, Path dest) throws IOException {
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(dest.resolve(source.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.copy(file, dest.resolve(source.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	public static void deleteFolder(Path folder) throws IOException {
+		if (!Files.exists(folder)) return;
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * Writes a registry with the given number of entries. Names are unique; one in every four entries
+	 * has an explicit hash that is not the hash of its name, like the entries added by the updater.
+	 * @param path
+	 * @param entries
+	 * @throws IOException
+	 */
+	public static void writeSyntheticRegistry(Path path, int entries) throws IOException {
+		NameRegistry registry = new NameRegistry();
+		for (int i = 0; i < entries; i++) {
+			String name = getSyntheticName(i);
+			registry.add(name, (i & 3) == 0 ? i * 0x9E3779B9 : NameRegistry.fnvHash(name));
+		}
+		new RegistryCodec().write(registry, path, false);
+	}
+	
+	public static String getSyntheticName(int index) {
+		return "synthetic_" + (index % 97) + "_name_" + index;
+	}
+}
@@ -0,0 +1,139 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup throughput of a {@link ConcurrentNameRegistry} shared by several threads, on the <code>reg_file.txt</code>
+ * registry of the SporeModder FX install. Every operation resolves {@link #BATCH} hashes into names.
+ * <li><code>snapshot*</code>: lock-free reads with 1, 2, 4 and as many threads as processors.
+ * <li><code>locked*</code>: the same lookups on a {@link NameRegistry} guarded by a lock, for comparison.
+ * <li><code>readWhileUpdating</code>: 3 reader threads, while another thread keeps publishing batches of new entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentRegistryBenchmark {
+
+	public static final int BATCH = 1024;
+
+	private ConcurrentNameRegistry concurrent;
+	private NameRegistry registry;
+	private int[] hashes;
+	private int nextName;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int position;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		registry = new NameRegistry();
+		registry.read(BenchmarkSupport.getInstall().resolve("reg_file.txt").toFile());
+
+		IntNameMap names = registry.names;
+		hashes = new int[names.size()];
+		for (int i = 0, j = 0, count = names.entryCount(); i < count; i++) {
+			if (names.isLive(i)) hashes[j++] = names.keyAt(i);
+		}
+	}
+
+	/** Discards the entries added by the writer of the previous iteration. */
+	@Setup(Level.Iteration)
+	public void setupIteration() {
+		concurrent = new ConcurrentNameRegistry(registry);
+	}
+
+	private int lookup(NameRegistry registry, Cursor cursor) {
+		int found = 0;
+		for (int i = 0; i < BATCH; i++) {
+			if (registry.getName(hashes[cursor.position]) != null) found++;
+			cursor.position = (cursor.position + 1) % hashes.length;
+		}
+		return found;
+	}
+
+	private int lookupConcurrent(Cursor cursor) {
+		return lookup(concurrent.snapshot(), cursor);
+	}
+
+	private int lookupLocked(Cursor cursor) {
+		synchronized (registry) {
+			return lookup(registry, cursor);
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int snapshot1(Cursor cursor) {
+		return lookupConcurrent(cursor);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public int snapshot2(Cursor cursor) {
+		return lookupConcurrent(cursor);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int snapshot4(Cursor cursor) {
+		return lookupConcurrent(cursor);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public int snapshotMax(Cursor cursor) {
+		return lookupConcurrent(cursor);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int locked1(Cursor cursor) {
+		return lookupLocked(cursor);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public int lockedMax(Cursor cursor) {
+		return lookupLocked(cursor);
+	}
+
+	@Benchmark
+	@Group("readWhileUpdating")
+	@GroupThreads(3)
+	public int reader(Cursor cursor) {
+		return lookupConcurrent(cursor);
+	}
+
+	@Benchmark
+	@Group("readWhileUpdating")
+	@GroupThreads(1)
+	public NameRegistry writer() throws IOException {
+		return concurrent.update(registry -> {
+			for (int i = 0; i < 100; i++) {
+				String name = BenchmarkSupport.getSyntheticName(nextName++);
+				registry.add(name, NameRegistry.fnvHash(name));
+			}
+		});
+	}
+}
@@ -0,0 +1,143 @@
+package sporemodder.updater;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that {@link DeltaPatch#apply(FileChannel, java.nio.channels.WritableByteChannel)} rebuilds the target from
+ * the patch made by {@link DeltaPatch#create(byte[], byte[])}, on random files: the target keeps, removes, moves and
+ * inserts parts of the base, which is either random or very repetitive data. One case of every 10 is up to 200 KB,
+ * so operations cross the buffers of the patch.
+ * <p>
+ * It also checks that a base with one changed byte is not accepted: {@link DeltaPatch#matchesBase(Path)} is false,
+ * and applying the patch to it either fails or still writes the exact target.
+ * <p>
+ * It is run by the <code>bench</code> profile before the benchmarks; the arguments are the number of random cases
+ * (3000 by default) and the seed. It exits with an error if any case fails.
+ */
+public class DeltaPatchCheck {
+
+	private final Random random;
+
+	private DeltaPatchCheck(long seed) {
+		random = new Random(seed);
+	}
+
+	private byte[] randomBase(int length) {
+		byte[] base = new byte[length];
+		if (random.nextBoolean()) {
+			random.nextBytes(base);
+		} else {
+			// Many repeated blocks, so there are many candidates with the same hash
+			for (int i = 0; i < length; i++) base[i] = (byte) random.nextInt(3);
+		}
+		return base;
+	}
+
+	private byte[] randomTarget(byte[] base) {
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		int position = 0;
+		while (position < base.length) {
+			int length = 1 + random.nextInt(Math.max(1, base.length / 4));
+			switch (random.nextInt(5)) {
+			case 0:
+				// New data
+				byte[] data = new byte[random.nextInt(100)];
+				random.nextBytes(data);
+				target.write(data, 0, data.length);
+				break;
+			case 1:
+				// Removed data
+				position += length;
+				break;
+			case 2:
+				// Data moved from anywhere in the base
+				int offset = random.nextInt(base.length);
+				target.write(base, offset, Math.min(length, base.length - offset));
+				break;
+			default:
+				// Unchanged data
+				int count = Math.min(length, base.length - position);
+				target.write(base, position, count);
+				position += count;
+			}
+		}
+		return target.toByteArray();
+	}
+
+	private static byte[] apply(byte[] patch, Path base) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(base)) {
+			new DeltaPatch(patch).apply(channel, Channels.newChannel(output));
+		}
+		return output.toByteArray();
+	}
+
+	private boolean check(Path path, int caseIndex, byte[] base, byte[] target) throws IOException {
+		byte[] patch = DeltaPatch.create(base, target);
+		DeltaPatch header = new DeltaPatch(patch);
+		Files.write(path, base);
+		if (header.getBaseSize() != base.length || header.getTargetSize() != target.length || !header.matchesBase(path)) {
+			System.err.println("Case " + caseIndex + ": the patch header does not describe the base and the target");
+			return false;
+		}
+		byte[] output;
+		try {
+			output = apply(patch, path);
+		} catch (IOException e) {
+			output = null;
+		}
+		if (!Arrays.equals(output, target)) {
+			System.err.println("Case " + caseIndex + ": the patch does not produce the target, base of " + base.length
+					+ " bytes, target of " + target.length + " bytes");
+			return false;
+		}
+
+		if (base.length != 0) {
+			byte[] changed = base.clone();
+			changed[random.nextInt(changed.length)] ^= 1;
+			Files.write(path, changed);
+			if (header.matchesBase(path)) {
+				System.err.println("Case " + caseIndex + ": a changed base is accepted");
+				return false;
+			}
+			byte[] result;
+			try {
+				result = apply(patch, path);
+			} catch (IOException e) {
+				// The output is verified, so this is expected
+				return true;
+			}
+			if (!Arrays.equals(result, target)) {
+				System.err.println("Case " + caseIndex + ": applying the patch to a changed base writes a wrong file without failing");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+		DeltaPatchCheck check = new DeltaPatchCheck(seed);
+		Path path = Files.createTempFile("base", ".bin");
+		try {
+			for (int i = 0; i < count; i++) {
+				byte[] base = check.randomBase(check.random.nextInt(i % 10 == 0 ? 200000 : 3000));
+				byte[] target = check.randomTarget(base);
+				if (!check.check(path, i, base, target)) {
+					System.exit(1);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+		System.out.println("DeltaPatch round trip passes in " + count + " cases");
+	}
+}
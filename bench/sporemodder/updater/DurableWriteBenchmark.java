@@ -0,0 +1,101 @@
+package sporemodder.updater;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of writing all the files of the SporeModder FX install into an empty folder, as an update does.
+ * The files are read into memory once, so only the writes are measured.
+ * <li><code>copy</code>: <code>Files.copy</code> from a stream, like the updater did before {@link UpdateOutput};
+ * nothing is durable when it returns.
+ * <li><code>fsync-each</code>: the same, but every file and its folder are flushed right after writing it.
+ * <li><code>durable</code>: {@link UpdateOutput}, flushing all the files and then every folder once at the end.
+ * Both <code>fsync-each</code> and <code>durable</code> leave every file durable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class DurableWriteBenchmark {
+
+	@Param({"copy", "fsync-each", "durable"})
+	public String mode;
+
+	private final List<String> names = new ArrayList<>();
+	private final List<byte[]> contents = new ArrayList<>();
+	private Path folder;
+
+	@Setup(Level.Trial)
+	public void readInstall() throws IOException {
+		Path install = BenchmarkSupport.getInstall();
+		List<Path> files;
+		try (Stream<Path> stream = Files.walk(install)) {
+			files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			names.add(install.relativize(file).toString());
+			contents.add(Files.readAllBytes(file));
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void setup() throws IOException {
+		folder = Files.createTempDirectory("install");
+		for (String name : names) {
+			Files.createDirectories(folder.resolve(name).getParent());
+		}
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown() throws IOException {
+		BenchmarkSupport.deleteFolder(folder);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		UpdateOutput output = new UpdateOutput();
+		for (int i = 0; i < names.size(); i++) {
+			Path path = folder.resolve(names.get(i));
+			byte[] data = contents.get(i);
+			if (mode.equals("durable")) {
+				output.copy(new ByteArrayInputStream(data), path, data.length);
+			} else {
+				Files.copy(new ByteArrayInputStream(data), path);
+				if (mode.equals("fsync-each")) {
+					try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+						channel.force(true);
+					}
+					UpdateOutput.syncFolder(path.getParent());
+				}
+			}
+		}
+		if (mode.equals("durable")) {
+			output.sync();
+		}
+	}
+}
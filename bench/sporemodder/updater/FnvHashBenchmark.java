@@ -0,0 +1,119 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per name of {@link FnvHash} on the names of the real registries of the SporeModder FX install. Every invocation
+ * hashes the next {@link #BATCH} names of the registry, so scores are in nanoseconds per name.
+ * <li><code>legacy</code>: the original implementation of {@link NameRegistry#fnvHash(String)}, <code>toLowerCase().toCharArray()</code>.
+ * <li><code>charSequence</code>, <code>utf8</code>: one name at a time.
+ * <li><code>batchUtf8</code>: all the names of the invocation at once, from the arena of the registry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FnvHashBenchmark {
+	
+	public static final int BATCH = 4096;
+	
+	@Param({"reg_file.txt", "reg_property.txt"})
+	public String file;
+	
+	private String[] names;
+	private byte[] bytes;
+	private int[] starts;
+	private int[] lengths;
+	private int[] hashes;
+	private int position;
+	
+	@Setup
+	public void setup() throws IOException {
+		NameRegistry registry = new NameRegistry();
+		registry.read(BenchmarkSupport.getInstall().resolve(file).toFile());
+		names = registry.getNames().toArray(new String[0]);
+		
+		IntNameMap map = registry.names;
+		bytes = registry.arena.array();
+		starts = new int[names.length];
+		lengths = new int[names.length];
+		for (int i = 0, j = 0, count = map.entryCount(); i < count; i++) {
+			if (!map.isLive(i)) continue;
+			starts[j] = registry.arena.start(map.refAt(i));
+			lengths[j] = registry.arena.length(map.refAt(i));
+			j++;
+		}
+		hashes = new int[BATCH];
+	}
+	
+	private static int legacyHash(String string) {
+		char[] lower = string.toLowerCase().toCharArray();
+		int rez = 0x811C9DC5;
+		for (int i = 0; i < lower.length; i++) {
+			rez *= 0x1000193;
+			rez ^= lower[i];
+		}
+		return rez;
+	}
+	
+	/** Returns the first name of the next invocation. */
+	private int next() {
+		int first = position;
+		position += BATCH;
+		if (position + BATCH > names.length) position = 0;
+		return first;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int legacy() {
+		int result = 0;
+		for (int i = next(), end = i + BATCH; i < end; i++) {
+			result ^= legacyHash(names[i]);
+		}
+		return result;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int charSequence() {
+		int result = 0;
+		for (int i = next(), end = i + BATCH; i < end; i++) {
+			result ^= FnvHash.hash(names[i]);
+		}
+		return result;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int utf8() {
+		int result = 0;
+		for (int i = next(), end = i + BATCH; i < end; i++) {
+			result ^= FnvHash.hash(bytes, starts[i], lengths[i]);
+		}
+		return result;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int[] batchUtf8() {
+		FnvHash.hash(bytes, starts, lengths, next(), BATCH, hashes);
+		return hashes;
+	}
+}
@@ -0,0 +1,158 @@
+package sporemodder.updater;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link NameRegistry} on the real registries of the SporeModder FX install.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistryBenchmark {
+	
+	@Param({"reg_file.txt", "reg_property.txt"})
+	public String file;
+	
+	private Path path;
+	private Path output;
+	private NameRegistry registry;
+	private String[] names;
+	private String[] hashes;
+	private String[] nameCopies;
+	private int[] hashValues;
+	private NameIndex index;
+	private String[] prefixes;
+	
+	@Setup
+	public void setup() throws IOException {
+		path = BenchmarkSupport.getInstall().resolve(file);
+		output = Files.createTempFile("registry", ".txt");
+		registry = new NameRegistry();
+		registry.read(path.toFile());
+		
+		names = registry.getNames().toArray(new String[0]);
+		hashes = new String[names.length];
+		nameCopies = new String[names.length];
+		hashValues = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			hashValues[i] = registry.getHash(names[i]) != null ? registry.getHash(names[i]) : NameRegistry.fnvHash(names[i]);
+			hashes[i] = "0x" + Integer.toHexString(hashValues[i]);
+			// Equal to the names, but not the same instances, like names read from another file
+			nameCopies[i] = new String(names[i].toCharArray());
+			nameCopies[i].hashCode();
+		}
+		
+		index = NameIndex.build(registry);
+		prefixes = new String[names.length / 100];
+		for (int i = 0; i < prefixes.length; i++) {
+			String name = names[i * 100];
+			prefixes[i] = name.substring(0, Math.min(name.length(), 6)).toUpperCase();
+		}
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(output);
+	}
+	
+	@Benchmark
+	public int fnvHash() {
+		int result = 0;
+		for (String name : names) {
+			result ^= NameRegistry.fnvHash(name);
+		}
+		return result;
+	}
+	
+	@Benchmark
+	public int int32() {
+		int result = 0;
+		for (String hash : hashes) {
+			result ^= NameRegistry.int32(hash);
+		}
+		return result;
+	}
+	
+	@Benchmark
+	public int getHash() {
+		int result = 0;
+		for (String name : names) {
+			Integer hash = registry.getHash(name);
+			if (hash != null) result ^= hash;
+		}
+		return result;
+	}
+	
+	@Benchmark
+	public int getHashCopies() {
+		int result = 0;
+		for (String name : nameCopies) {
+			Integer hash = registry.getHash(name);
+			if (hash != null) result ^= hash;
+		}
+		return result;
+	}
+	
+	@Benchmark
+	public int getName() {
+		int result = 0;
+		for (int hash : hashValues) {
+			result += registry.getName(hash).length();
+		}
+		return result;
+	}
+	
+	@Benchmark
+	public NameRegistry read() throws IOException {
+		NameRegistry result = new NameRegistry();
+		result.read(path.toFile());
+		return result;
+	}
+	
+	@Benchmark
+	public void write() throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			registry.write(writer, false);
+		}
+	}
+	
+	@Benchmark
+	public void writeCodec() throws IOException {
+		new RegistryCodec().write(registry, output, false);
+	}
+	
+	@Benchmark
+	public NameIndex buildIndex() {
+		return NameIndex.build(registry);
+	}
+	
+	@Benchmark
+	public int indexPrefix() {
+		int result = 0;
+		for (String prefix : prefixes) {
+			result += index.findPrefix(prefix, 10).size();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,193 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares {@link RegistryCodec#replaceEntries(Path, NameRegistry)} with a simple implementation based on strings,
+ * on random registry files: mixed <code>\n</code>, <code>\r\n</code> and <code>\r</code> line separators, comments,
+ * non-ASCII names and files without a final line separator. Some files have 100k lines, so lines and
+ * <code>\r\n</code> separators cross the boundaries of the codec buffer.
+ * <p>
+ * It is run by the <code>bench</code> profile before the benchmarks; the arguments are the number of random cases
+ * (200000 by default) and the seed. It exits with an error and prints the case if the results are different.
+ */
+public class ReplaceEntriesCheck {
+
+	private static final String[] NAMES = {"a", "b", "Foo", "foo", "bar~", "BAR~", "z\u00e9", "\u65e5\u672c", "x y", "c"};
+	private static final String[] SEPARATORS = {"\n", "\r\n", "\r"};
+
+	private final Random random;
+
+	private ReplaceEntriesCheck(long seed) {
+		random = new Random(seed);
+	}
+
+	private String randomName() {
+		return random.nextInt(4) == 0 ? "n" + random.nextInt(30) : NAMES[random.nextInt(NAMES.length)];
+	}
+
+	private String randomLine() {
+		switch (random.nextInt(9)) {
+		case 0: return "";
+		case 1: return "# comment " + random.nextInt(5);
+		case 2: return "// only comment";
+		case 3: return "  " + randomName() + "  ";
+		case 4: return randomName() + "\t0x" + Integer.toHexString(random.nextInt(20)) + " // comment";
+		default: return randomName() + "\t" + (random.nextBoolean() ? "0x" + Integer.toHexString(random.nextInt(20)) : Integer.toString(random.nextInt(20)));
+		}
+	}
+
+	private String randomFile(int lineCount) {
+		StringBuilder sb = new StringBuilder();
+		String separator = SEPARATORS[random.nextInt(SEPARATORS.length)];
+		for (int i = 0; i < lineCount; i++) {
+			sb.append(randomLine());
+			// Sometimes there is no final separator, and some lines use another one
+			if (i < lineCount - 1 || random.nextBoolean()) {
+				sb.append(random.nextInt(5) == 0 ? SEPARATORS[random.nextInt(SEPARATORS.length)] : separator);
+			}
+		}
+		return sb.toString();
+	}
+
+	private NameRegistry randomEntries(int count) {
+		NameRegistry entries = new NameRegistry();
+		for (int i = 0; i < count; i++) {
+			String name = randomName();
+			if (random.nextInt(4) == 0) {
+				// A name without explicit hash
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				entries.addName(bytes, 0, bytes.length, NameRegistry.fnvHash(name));
+			} else {
+				entries.add(name, random.nextInt(20));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * The expected result of replacing the entries, following the rules of {@link RegistryCodec#replaceEntries(Path, NameRegistry)}.
+	 */
+	static String replaceEntries(String text, NameRegistry entries) throws IOException {
+		// Every line with its separator
+		List<String[]> lines = new ArrayList<>();
+		int start = 0;
+		int i = 0;
+		while (i < text.length()) {
+			char c = text.charAt(i);
+			if (c == '\n' || c == '\r') {
+				int end = i;
+				i += c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n' ? 2 : 1;
+				lines.add(new String[] {text.substring(start, end), text.substring(end, i)});
+				start = i;
+			} else {
+				++i;
+			}
+		}
+		if (start < text.length()) {
+			lines.add(new String[] {text.substring(start), ""});
+		}
+
+		Map<Integer, String> newNames = new LinkedHashMap<>();
+		Map<String, Integer> newHashes = new HashMap<>();
+		entries.forEach((hash, name) -> {
+			newNames.put(hash, name);
+			newHashes.put(name, hash);
+		});
+
+		Set<Integer> written = new HashSet<>();
+		String lineSeparator = null;
+		StringBuilder sb = new StringBuilder();
+		for (String[] line : lines) {
+			if (lineSeparator == null && !line[1].isEmpty()) {
+				lineSeparator = line[1];
+			}
+			String str = line[0].split("//")[0].trim();
+			if (!str.isEmpty() && !str.startsWith("#")) {
+				String[] strings = str.split("\t");
+				String name = strings[0].trim();
+				int hash = strings.length < 2 ? NameRegistry.fnvHash(name) : NameRegistry.int32(strings[1].trim());
+				if (newNames.containsKey(hash)) {
+					if (written.add(hash)) {
+						sb.append(newNames.get(hash)).append("\t0x").append(Integer.toHexString(hash)).append(line[1]);
+					}
+					continue;
+				}
+				if (newHashes.containsKey(name)) {
+					continue;
+				}
+			}
+			sb.append(line[0]).append(line[1]);
+		}
+
+		if (lineSeparator == null) {
+			lineSeparator = System.lineSeparator();
+		}
+		boolean lastLineEnded = lines.isEmpty() || !lines.get(lines.size() - 1)[1].isEmpty();
+		for (Map.Entry<Integer, String> entry : newNames.entrySet()) {
+			if (written.contains(entry.getKey())) continue;
+			if (!lastLineEnded) {
+				sb.append(lineSeparator);
+				lastLineEnded = true;
+			}
+			sb.append(entry.getValue()).append("\t0x").append(Integer.toHexString(entry.getKey())).append(lineSeparator);
+		}
+		return sb.toString();
+	}
+
+	private boolean check(Path path, RegistryCodec codec, String text, NameRegistry entries) throws IOException {
+		byte[] original = text.getBytes(StandardCharsets.UTF_8);
+		Files.write(path, original);
+		boolean modified = codec.replaceEntries(path, entries);
+		byte[] result = Files.readAllBytes(path);
+		byte[] expected = replaceEntries(text, entries).getBytes(StandardCharsets.UTF_8);
+
+		if (Arrays.equals(result, expected) && modified != Arrays.equals(original, expected)) {
+			return true;
+		}
+		System.err.println("replaceEntries differs from the reference" + (modified ? "" : " (file reported as unmodified)"));
+		System.err.println("-- entries: " + entries.getNames());
+		if (text.length() > 10000) {
+			System.err.println("-- file of " + original.length + " bytes, result of " + result.length + " bytes, expected " + expected.length + " bytes");
+		} else {
+			System.err.println("-- file:\n" + text.replace("\r", "\\r"));
+			System.err.println("-- result:\n" + new String(result, StandardCharsets.UTF_8).replace("\r", "\\r"));
+			System.err.println("-- expected:\n" + new String(expected, StandardCharsets.UTF_8).replace("\r", "\\r"));
+		}
+		return false;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		ReplaceEntriesCheck check = new ReplaceEntriesCheck(seed);
+		RegistryCodec codec = new RegistryCodec();
+		Path path = Files.createTempFile("registry", ".txt");
+		try {
+			for (int i = 0; i < count; i++) {
+				// Every 1000 cases, a big file with many entries
+				boolean big = i % 1000 == 999;
+				String text = check.randomFile(big ? 100000 : check.random.nextInt(12));
+				NameRegistry entries = check.randomEntries(big ? 15 : check.random.nextInt(4));
+				if (!check.check(path, codec, text, entries)) {
+					System.exit(1);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+		System.out.println("replaceEntries matches the reference in " + count + " cases");
+	}
+}
@@ -0,0 +1,97 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link NameRegistry} on generated registries, to see how it scales with the number of entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SyntheticRegistryBenchmark {
+	
+	/** Number of lookups done by the lookup benchmarks. */
+	private static final int LOOKUPS = 100000;
+	
+	@Param({"1000000", "10000000"})
+	public int entries;
+	
+	private Path path;
+	private Path output;
+	private NameRegistry registry;
+	private String[] lookupNames;
+	private int[] lookupHashes;
+	
+	@Setup
+	public void setup() throws IOException {
+		path = Files.createTempFile("synthetic", ".txt");
+		output = Files.createTempFile("synthetic", ".txt");
+		BenchmarkSupport.writeSyntheticRegistry(path, entries);
+		
+		registry = new NameRegistry();
+		registry.read(path.toFile());
+		
+		lookupNames = new String[LOOKUPS];
+		lookupHashes = new int[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			int index = (int) ((i * 0x9E3779B97F4A7C15L >>> 1) % entries);
+			lookupNames[i] = BenchmarkSupport.getSyntheticName(index);
+			lookupHashes[i] = NameRegistry.fnvHash(lookupNames[i]);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(path);
+		Files.deleteIfExists(output);
+	}
+	
+	@Benchmark
+	public NameRegistry read() throws IOException {
+		NameRegistry result = new NameRegistry();
+		result.read(path.toFile());
+		return result;
+	}
+	
+	@Benchmark
+	public void write() throws IOException {
+		new RegistryCodec().write(registry, output, false);
+	}
+	
+	@Benchmark
+	public int getHash() {
+		int found = 0;
+		for (String name : lookupNames) {
+			if (registry.getHash(name) != null) ++found;
+		}
+		return found;
+	}
+	
+	@Benchmark
+	public int getName() {
+		int found = 0;
+		for (int hash : lookupHashes) {
+			if (registry.getName(hash) != null) ++found;
+		}
+		return found;
+	}
+}
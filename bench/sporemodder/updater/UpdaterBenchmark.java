@@ -0,0 +1,76 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the registry merges of {@link Updater}, on a temporary copy of the SporeModder FX install
+ * that is recreated for every invocation.
+ * <li><code>append</code>: the <code>modifyRegistry</code> merges, parsing the installed registries.
+ * <li><code>append-indexed</code>: the same, when the updater already has an index of the installed registries.
+ * <li><code>forced</code>: the <code>forcedModifyRegistry</code> merge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class UpdaterBenchmark {
+	
+	@Param({"append", "append-indexed", "forced"})
+	public String mode;
+	
+	private Path folder;
+	private Updater task;
+	
+	@Setup(Level.Invocation)
+	public void setup() throws IOException {
+		folder = Files.createTempDirectory("install");
+		BenchmarkSupport.copyFolder(BenchmarkSupport.getInstall(), folder);
+		
+		task = new Updater(folder.toFile());
+		task.setWorkerCount(1);
+		if (mode.equals("forced")) {
+			task.forcedModifyRegistry("reg_type.txt", "reg_type.txt");
+		} else {
+			task.modifyRegistry("reg_file.txt", "reg_file.txt");
+			task.modifyRegistry("reg_property.txt", "reg_property.txt");
+			task.modifyRegistry("reg_type_noforce.txt", "reg_type.txt");
+		}
+		
+		if (mode.equals("append-indexed")) {
+			for (String name : new String[] {"reg_file.txt", "reg_property.txt", "reg_type.txt"}) {
+				Path index = folder.resolve(Updater.INDEX_FOLDER).resolve(name + RegistrySnapshot.EXTENSION);
+				Files.createDirectories(index.getParent());
+				RegistrySnapshot.forFile(folder.resolve(name), index);
+			}
+		}
+	}
+	
+	@TearDown(Level.Invocation)
+	public void tearDown() throws IOException {
+		BenchmarkSupport.deleteFolder(folder);
+	}
+	
+	@Benchmark
+	public void call() throws Exception {
+		task.call();
+	}
+}
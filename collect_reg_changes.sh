@@ -1,3 +1,21 @@
-cd SporeModder-FX
-lastTagCommit=$(git rev-list -n 1 $(git describe --tags --abbrev=0))
-git diff -U0 $lastTagCommit $1 | grep '^[+]' | grep -Ev '^(--- a/|\+\+\+ b/)' | cut -c2- 
+# Adds the entries of a SporeModder FX registry that changed since the last release into the registry chain of the updater:
+# they are written into registries/<version>/<name of the updater registry>, next to the updater registry, skipping the
+# entries that the updater registry or the patches of earlier versions already have (see RegistryChain.java).
+# Usage: collect_reg_changes.sh <registry file name> <updater registry> <version>
+# It must be run after compiling the updater (mvn compile), with SporeModder FX cloned into SporeModder-FX
+set -e
+lastTag=$(git -C SporeModder-FX describe --tags --abbrev=0)
+previous=$(mktemp)
+git -C SporeModder-FX show "$lastTag:$1" > "$previous"
+resources=$(dirname "$2")
+name=$(basename "$2")
+released=("$2")
+if [ -f "$resources/registries/chain.txt" ]; then
+  while read -r version; do
+    if [ -n "$version" ] && [ -f "$resources/registries/$version/$name" ]; then
+      released+=("$resources/registries/$version/$name")
+    fi
+  done < "$resources/registries/chain.txt"
+fi
+java -cp target/classes sporemodder.updater.RegistryDiff "$previous" "SporeModder-FX/$1" "$resources/registries/$3/$name" "${released[@]}"
+rm "$previous"
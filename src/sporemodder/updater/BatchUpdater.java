@@ -0,0 +1,187 @@
+package sporemodder.updater;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Updates many SporeModder FX folders in the same process, following the {@link UpdatePlan}. The resources are read
+ * once into an {@link UpdateResources} shared by all the updaters: the resource pack is decompressed once and every
+ * file is written from memory into all the folders, and every input registry is parsed once.
+ * <p>
+ * Folders are updated concurrently, each one by its own {@link Updater}; a folder that fails does not stop the others,
+ * the result of each one is reported separately.
+ */
+public class BatchUpdater {
+
+	public enum Status {
+		UPDATED,
+		/** The update failed; unless it was transactional, the folder might be partially updated. */
+		FAILED,
+		/** SporeModder FX did not close, the folder was not modified. */
+		PROGRAM_RUNNING
+	}
+
+	/**
+	 * The result of updating a single folder.
+	 */
+	public static class Result {
+		public final File folder;
+		public final Status status;
+		/** The summary of the update, see {@link Updater.Listener#message(String)}, or null if it did not finish. */
+		public final String message;
+		/** The exception that made the update fail, or null. */
+		public final Exception error;
+		/** The updater used for the folder, to get its telemetry; null if the update did not start. */
+		public final Updater updater;
+
+		public Result(File folder, Status status, String message, Exception error, Updater updater) {
+			this.folder = folder;
+			this.status = status;
+			this.message = message;
+			this.error = error;
+			this.updater = updater;
+		}
+	}
+
+	/**
+	 * Receives the result of every folder as soon as it finishes. It can be called from any thread.
+	 */
+	public interface Listener {
+		public void finished(Result result);
+	}
+
+	/**
+	 * Sets the options of the updater of every folder, after the {@link UpdatePlan} has been added to it.
+	 */
+	public interface Configurator {
+		public void configure(Updater updater);
+	}
+
+	private final List<File> folders;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private boolean waitForProgram = true;
+	private Configurator configurator;
+	private Listener listener;
+
+	/**
+	 * @param folders The SporeModder FX folders to update.
+	 */
+	public BatchUpdater(List<File> folders) {
+		this.folders = new ArrayList<>(folders);
+	}
+
+	public List<File> getFolders() {
+		return folders;
+	}
+
+	/**
+	 * Sets how many folders are updated at the same time; by default, the number of processors. Every updater uses
+	 * a single worker thread unless the {@link #setConfigurator(Configurator) configurator} changes it.
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * If true (the default), every folder waits until its SporeModder FX has closed, see {@link UpdatePlan#waitForProgram(File, long)}.
+	 * @param waitForProgram
+	 */
+	public void setWaitForProgram(boolean waitForProgram) {
+		this.waitForProgram = waitForProgram;
+	}
+
+	public void setConfigurator(Configurator configurator) {
+		this.configurator = configurator;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Reads the resources and updates all the folders.
+	 * @return The result of every folder, in the same order as the folders.
+	 * @throws IOException If the resources cannot be read; then no folder is modified.
+	 * @throws InterruptedException
+	 */
+	public List<Result> run() throws IOException, InterruptedException {
+		UpdateResources resources = UpdateResources.load();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, folders.size())), runnable -> {
+			Thread thread = new Thread(runnable, "batch-updater");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Result>> futures = new ArrayList<>();
+			for (File folder : folders) {
+				futures.add(executor.submit(() -> {
+					Result result = update(folder, resources);
+					if (listener != null) {
+						listener.finished(result);
+					}
+					return result;
+				}));
+			}
+			List<Result> results = new ArrayList<>();
+			for (Future<Result> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					// Only the listener can throw
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Result update(File folder, UpdateResources resources) {
+		if (waitForProgram && !UpdatePlan.waitForProgram(folder, -1)) {
+			return new Result(folder, Status.PROGRAM_RUNNING, null, null, null);
+		}
+
+		Updater updater = new Updater(folder);
+		updater.setResources(resources);
+		updater.setWorkerCount(1);
+		String[] message = new String[1];
+		updater.setListener(new Updater.Listener() {
+			@Override
+			public void progress(long done, long total) {
+			}
+
+			@Override
+			public void message(String text) {
+				message[0] = text;
+			}
+		});
+
+		try {
+			UpdatePlan.setupTask(updater);
+			if (configurator != null) {
+				configurator.configure(updater);
+			}
+			UpdateTransaction.recover(folder);
+			if (!folder.isDirectory()) {
+				throw new IOException("Not a folder: " + folder);
+			}
+			updater.call();
+			return new Result(folder, Status.UPDATED, message[0], null, updater);
+		} catch (Exception e) {
+			return new Result(folder, Status.FAILED, null, e, updater);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package sporemodder.updater;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A {@link NameRegistry} that can be shared by many threads. Reads are lock-free: they use the current snapshot,
+ * an immutable registry published through a volatile field, so they never wait for each other or for writers.
+ * <p>
+ * Writers are serialized. Every {@link #update(Batch) update} copies the current snapshot, applies all its changes
+ * to the copy and then publishes it as the new snapshot, so readers see either all the changes of a batch or none.
+ * As every update copies the whole registry, changes should be grouped into as few batches as possible.
+ */
+public class ConcurrentNameRegistry {
+	/**
+	 * Changes applied to a private copy of the registry, see {@link ConcurrentNameRegistry#update(Batch)}.
+	 */
+	public interface Batch {
+		public void apply(NameRegistry registry) throws IOException;
+	}
+
+	private volatile NameRegistry snapshot;
+
+	public ConcurrentNameRegistry() {
+		snapshot = new NameRegistry();
+	}
+
+	/**
+	 * Creates a concurrent registry with a copy of the entries of the given one.
+	 * @param registry
+	 */
+	public ConcurrentNameRegistry(NameRegistry registry) {
+		snapshot = new NameRegistry(registry);
+	}
+
+	/**
+	 * Returns the current version of the registry. It is not affected by later updates, so many lookups can be done
+	 * on a consistent version; it must not be modified.
+	 * @return
+	 */
+	public NameRegistry snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the name that is assigned to the given hash in the current snapshot, or null.
+	 * @param hash
+	 * @return
+	 */
+	public String getName(int hash) {
+		return snapshot.getName(hash);
+	}
+
+	/**
+	 * Returns the hash that is assigned to the given name in the current snapshot, or null.
+	 * @param name
+	 * @return
+	 */
+	public Integer getHash(String name) {
+		return snapshot.getHash(name);
+	}
+
+	/**
+	 * Returns true if the given hash is assigned to exactly the given name in the current snapshot.
+	 * @param hash
+	 * @param name
+	 * @return
+	 */
+	public boolean hasName(int hash, String name) {
+		return snapshot.hasName(hash, name);
+	}
+
+	/**
+	 * Applies a batch of changes and publishes them atomically as a new snapshot. If the batch throws an exception,
+	 * nothing is published. Only one update runs at a time.
+	 * @param batch
+	 * @return The new snapshot.
+	 * @throws IOException If the batch throws it.
+	 */
+	public synchronized NameRegistry update(Batch batch) throws IOException {
+		NameRegistry registry = new NameRegistry(snapshot);
+		batch.apply(registry);
+		snapshot = registry;
+		return registry;
+	}
+
+	/**
+	 * Adds a single name-hash pair, see {@link #update(Batch)}.
+	 * @param name
+	 * @param hash
+	 */
+	public synchronized void add(String name, int hash) {
+		NameRegistry registry = new NameRegistry(snapshot);
+		registry.add(name, hash);
+		snapshot = registry;
+	}
+
+	/**
+	 * Reads all the entries of a registry file into a new snapshot, see {@link NameRegistry#read(File)}.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void read(File file) throws IOException {
+		update(registry -> registry.read(file));
+	}
+}
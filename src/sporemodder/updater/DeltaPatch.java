@@ -0,0 +1,309 @@
+package sporemodder.updater;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * A binary patch that transforms a specific version of a file (the base) into a new version (the target).
+ * Both versions are identified by their size and SHA-256, so a patch is only applied to the exact file it was made for.
+ * <p>
+ * The patch is a list of operations that build the target from beginning to end: copying a range of the base,
+ * or inserting new data. It is created by matching blocks of the target with blocks of the base, with a rolling hash,
+ * so data that moved (like the classes of a jar) is still found.
+ * <p>
+ * Patches for the files of the `resources` package are stored in the <code>patches</code> folder, named after the
+ * file with the {@link #EXTENSION} extension; {@link ResourcePack} stores them before all the other files.
+ */
+public class DeltaPatch {
+
+	/** Folder of the patches, relative to the `resources` package. */
+	public static final String FOLDER = "patches";
+	public static final String EXTENSION = ".patch";
+
+	private static final int MAGIC = 0x534D4450;  // SMDP
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 32 + 8 + 32;
+
+	private static final byte OP_END = 0;
+	private static final byte OP_COPY = 1;
+	private static final byte OP_DATA = 2;
+
+	/** Size of the blocks of the base that are indexed; matches shorter than this are not found. */
+	private static final int BLOCK_SIZE = 64;
+	/** Maximum number of base blocks with the same hash that are compared. */
+	private static final int MAX_CANDIDATES = 16;
+	private static final int HASH_MULTIPLIER = 0x01000193;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final ByteBuffer data;
+	private final long baseSize;
+	private final byte[] baseSha256 = new byte[32];
+	private final long targetSize;
+	private final byte[] targetSha256 = new byte[32];
+
+	/**
+	 * Reads the header of a patch.
+	 * @param bytes
+	 * @throws IOException If it is not a valid patch.
+	 */
+	public DeltaPatch(byte[] bytes) throws IOException {
+		data = ByteBuffer.wrap(bytes);
+		try {
+			if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+				throw new IOException("Invalid delta patch");
+			}
+			baseSize = data.getLong();
+			data.get(baseSha256);
+			targetSize = data.getLong();
+			data.get(targetSha256);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Invalid delta patch");
+		}
+	}
+
+	/** Returns the path of the patch for the given resource, relative to the `resources` package. */
+	public static String getPath(String internalPath) {
+		return FOLDER + "/" + internalPath + EXTENSION;
+	}
+
+	/**
+	 * Returns the resource patched by the given patch, or null if the path is not a patch.
+	 * @param path Path relative to the `resources` package.
+	 */
+	public static String getTarget(String path) {
+		if (path.startsWith(FOLDER + "/") && path.endsWith(EXTENSION)) {
+			return path.substring(FOLDER.length() + 1, path.length() - EXTENSION.length());
+		}
+		return null;
+	}
+
+	public long getBaseSize() {
+		return baseSize;
+	}
+
+	public byte[] getBaseSha256() {
+		return baseSha256;
+	}
+
+	public long getTargetSize() {
+		return targetSize;
+	}
+
+	public byte[] getTargetSha256() {
+		return targetSha256;
+	}
+
+	/**
+	 * Returns true if the given file is the base of this patch. The file is only hashed if its size is the same as the base's.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean matchesBase(Path file) throws IOException {
+		return Files.isRegularFile(file) && Files.size(file) == baseSize
+				&& MessageDigest.isEqual(ResourceManifest.sha256(file), baseSha256);
+	}
+
+	/**
+	 * Writes the target by applying the patch to the base. The output is verified against the size and SHA-256 of the target.
+	 * @param base The base file, it is only read with positional reads.
+	 * @param output
+	 * @throws IOException If the patch is invalid, or the output is not the target.
+	 */
+	public void apply(FileChannel base, WritableByteChannel output) throws IOException {
+		MessageDigest digest = ResourceManifest.newDigest();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		ByteBuffer ops = data.duplicate();
+		ops.position(HEADER_SIZE);
+		long written = 0;
+		try {
+			byte op;
+			while ((op = ops.get()) != OP_END) {
+				if (op == OP_COPY) {
+					long offset = ops.getLong();
+					int length = ops.getInt();
+					if (offset < 0 || length < 0 || offset + length > base.size()) {
+						throw new IOException("Invalid delta patch");
+					}
+					long end = offset + length;
+					while (offset < end) {
+						buffer.clear();
+						buffer.limit((int) Math.min(end - offset, BUFFER_SIZE));
+						while (buffer.hasRemaining()) {
+							int read = base.read(buffer, offset + buffer.position());
+							if (read == -1) throw new IOException("Unexpected end of file");
+						}
+						buffer.flip();
+						offset += buffer.remaining();
+						written += write(buffer, digest, output);
+					}
+				}
+				else if (op == OP_DATA) {
+					int length = ops.getInt();
+					ByteBuffer slice = ops.slice();
+					slice.limit(length);
+					ops.position(ops.position() + length);
+					written += write(slice, digest, output);
+				}
+				else {
+					throw new IOException("Invalid delta patch");
+				}
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Invalid delta patch");
+		}
+		if (written != targetSize || !MessageDigest.isEqual(digest.digest(), targetSha256)) {
+			throw new IOException("The patched file is not the expected one");
+		}
+	}
+
+	private static int write(ByteBuffer buffer, MessageDigest digest, WritableByteChannel output) throws IOException {
+		int length = buffer.remaining();
+		digest.update(buffer.duplicate());
+		while (buffer.hasRemaining()) {
+			output.write(buffer);
+		}
+		return length;
+	}
+
+	/**
+	 * Creates a patch that transforms the base into the target.
+	 * @param base
+	 * @param target
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] create(byte[] base, byte[] target) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(base.length);
+		out.write(sha256(base));
+		out.writeLong(target.length);
+		out.write(sha256(target));
+
+		// Hashes of all the aligned blocks of the base, with their offsets: (hash << 32) | offset, sorted
+		int blockCount = base.length / BLOCK_SIZE;
+		long[] index = new long[blockCount];
+		for (int i = 0; i < blockCount; i++) {
+			index[i] = ((long) blockHash(base, i * BLOCK_SIZE) << 32) | (i * BLOCK_SIZE);
+		}
+		Arrays.sort(index);
+
+		// Multiplier of the byte that leaves the rolling hash
+		int outFactor = 1;
+		for (int i = 0; i < BLOCK_SIZE - 1; i++) outFactor *= HASH_MULTIPLIER;
+
+		int literalStart = 0;
+		int pos = 0;
+		int hash = target.length >= BLOCK_SIZE ? blockHash(target, 0) : 0;
+		while (pos + BLOCK_SIZE <= target.length) {
+			int matchOffset = -1;
+			int matchLength = 0;
+			int matchBefore = 0;
+			int first = lowerBound(index, hash);
+			for (int i = first; i < index.length && i < first + MAX_CANDIDATES && (int) (index[i] >>> 32) == hash; i++) {
+				int offset = (int) index[i];
+				int length = 0;
+				while (pos + length < target.length && offset + length < base.length && target[pos + length] == base[offset + length]) {
+					++length;
+				}
+				if (length < BLOCK_SIZE) continue;
+				// The match can also extend backwards into the pending literal data
+				int before = 0;
+				while (pos - before > literalStart && offset - before > 0 && target[pos - before - 1] == base[offset - before - 1]) {
+					++before;
+				}
+				if (before + length > matchBefore + matchLength) {
+					matchOffset = offset;
+					matchLength = length;
+					matchBefore = before;
+				}
+			}
+
+			if (matchOffset != -1) {
+				writeData(out, target, literalStart, pos - matchBefore);
+				out.writeByte(OP_COPY);
+				out.writeLong(matchOffset - matchBefore);
+				out.writeInt(matchBefore + matchLength);
+				pos += matchLength;
+				literalStart = pos;
+				if (pos + BLOCK_SIZE <= target.length) {
+					hash = blockHash(target, pos);
+				}
+			} else {
+				if (pos + BLOCK_SIZE < target.length) {
+					hash = (hash - target[pos] * outFactor) * HASH_MULTIPLIER + target[pos + BLOCK_SIZE];
+				}
+				++pos;
+			}
+		}
+		writeData(out, target, literalStart, target.length);
+		out.writeByte(OP_END);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeData(DataOutputStream out, byte[] target, int start, int end) throws IOException {
+		if (end > start) {
+			out.writeByte(OP_DATA);
+			out.writeInt(end - start);
+			out.write(target, start, end - start);
+		}
+	}
+
+	private static int blockHash(byte[] bytes, int offset) {
+		int hash = 0;
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			hash = hash * HASH_MULTIPLIER + bytes[offset + i];
+		}
+		return hash;
+	}
+
+	/** Returns the first position of the sorted index whose hash is the given one, or where it would be. */
+	private static int lowerBound(long[] index, int hash) {
+		long key = (long) hash << 32;
+		int low = 0;
+		int high = index.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (index[mid] < key) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	private static byte[] sha256(byte[] bytes) {
+		return ResourceManifest.newDigest().digest(bytes);
+	}
+
+	/**
+	 * Creates the patch between two versions of a file; this is executed when releasing a new version.
+	 * Arguments: the previous version, the new version, and the output patch file.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		byte[] base = Files.readAllBytes(Paths.get(args[0]));
+		byte[] target = Files.readAllBytes(Paths.get(args[1]));
+		byte[] patch = create(base, target);
+		Path output = Paths.get(args[2]);
+		if (output.getParent() != null) {
+			Files.createDirectories(output.getParent());
+		}
+		Files.write(output, patch);
+		System.out.println(String.format("%s: %d bytes, patch of %d bytes (%.1f%%)",
+				output, target.length, patch.length, 100.0 * patch.length / Math.max(target.length, 1)));
+	}
+}
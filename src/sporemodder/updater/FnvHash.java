@@ -0,0 +1,155 @@
+package sporemodder.updater;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * The 32-bit FNV hash used by Spore for names, calculated without allocating. The hash is case-insensitive: it is
+ * calculated over the UTF-16 characters of the lowercase name, like <code>name.toLowerCase(Locale.ROOT)</code>.
+ * <p>
+ * ASCII characters are lowercased inline with a table. Other characters are lowercased one by one, except in the few
+ * cases where that is not the same as lowercasing the whole string (characters that lowercase into more than one,
+ * characters that depend on their context, or characters outside the BMP); then the lowercase string is created.
+ * <p>
+ * The batch methods hash the names one after another. Interleaving several independent hashes was tried, but names
+ * are short (20 bytes on average) and of different lengths, so it was not faster.
+ */
+public class FnvHash {
+
+	public static final int OFFSET_BASIS = 0x811C9DC5;
+	public static final int PRIME = 0x1000193;
+
+	/** Lowercase of every ASCII character. */
+	private static final byte[] ASCII_LOWER = new byte[128];
+	static {
+		for (int i = 0; i < ASCII_LOWER.length; i++) {
+			ASCII_LOWER[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+		}
+	}
+
+	/**
+	 * Returns the FNV hash of a name.
+	 * @param name
+	 * @return
+	 */
+	public static int hash(CharSequence name) {
+		int hash = OFFSET_BASIS;
+		for (int index = 0, count = name.length(); index < count; index++) {
+			char c = name.charAt(index);
+			if (c >= 0x80) {
+				return hashNonAscii(name, index, hash);
+			}
+			hash = (hash * PRIME) ^ ASCII_LOWER[c];
+		}
+		return hash;
+	}
+
+	private static int hashNonAscii(CharSequence name, int index, int hash) {
+		for (int count = name.length(); index < count; index++) {
+			char c = name.charAt(index);
+			if (c < 0x80) {
+				hash = (hash * PRIME) ^ ASCII_LOWER[c];
+			}
+			else if (isSpecialCase(c)) {
+				return hashLowerCase(name.toString().toLowerCase(Locale.ROOT));
+			}
+			else {
+				hash = (hash * PRIME) ^ Character.toLowerCase(c);
+			}
+		}
+		return hash;
+	}
+
+	/** Returns true if lowercasing the character alone might not give the same result as lowercasing the string. */
+	private static boolean isSpecialCase(char c) {
+		// Latin capital I with dot (two characters in lowercase), Greek capital sigma (depends on the position)
+		return c == '\u0130' || c == '\u03A3' || Character.isSurrogate(c);
+	}
+
+	/** Hashes a name that is already lowercase. */
+	private static int hashLowerCase(String lower) {
+		int hash = OFFSET_BASIS;
+		for (int i = 0, count = lower.length(); i < count; i++) {
+			hash = (hash * PRIME) ^ lower.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the FNV hash of a name encoded in UTF-8; it is the same as the hash of the decoded name.
+	 * @param b
+	 * @param start
+	 * @param length
+	 * @return
+	 */
+	public static int hash(byte[] b, int start, int length) {
+		int hash = OFFSET_BASIS;
+		for (int index = start, end = start + length; index < end; index++) {
+			byte c = b[index];
+			if (c < 0) {
+				return hashNonAscii(b, start, end, index, hash);
+			}
+			hash = (hash * PRIME) ^ ASCII_LOWER[c];
+		}
+		return hash;
+	}
+
+	private static int hashNonAscii(byte[] b, int start, int end, int index, int hash) {
+		while (index < end) {
+			int c = b[index] & 0xFF;
+			if (c < 0x80) {
+				hash = (hash * PRIME) ^ ASCII_LOWER[c];
+				index++;
+				continue;
+			}
+			// Decode 2 and 3 byte sequences; anything else (malformed, or outside the BMP) is decoded into a string
+			int c1 = index + 1 < end ? b[index + 1] & 0xFF : 0;
+			if (c >= 0xC2 && c <= 0xDF && (c1 & 0xC0) == 0x80) {
+				c = (c & 0x1F) << 6 | (c1 & 0x3F);
+				index += 2;
+			}
+			else if (c >= 0xE0 && c <= 0xEF && (c1 & 0xC0) == 0x80
+					&& (c != 0xE0 || c1 >= 0xA0) && (c != 0xED || c1 < 0xA0)
+					&& index + 2 < end && (b[index + 2] & 0xC0) == 0x80) {
+				c = (c & 0x0F) << 12 | (c1 & 0x3F) << 6 | (b[index + 2] & 0x3F);
+				index += 3;
+			}
+			else {
+				return hashLowerCase(new String(b, start, end - start, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT));
+			}
+			if (isSpecialCase((char) c)) {
+				return hashLowerCase(new String(b, start, end - start, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT));
+			}
+			hash = (hash * PRIME) ^ Character.toLowerCase((char) c);
+		}
+		return hash;
+	}
+
+	/**
+	 * Calculates the FNV hashes of many names.
+	 * @param names
+	 * @param offset Index of the first name.
+	 * @param count How many names are hashed.
+	 * @param hashes Array where the hashes are written, starting at index 0.
+	 */
+	public static void hash(CharSequence[] names, int offset, int count, int[] hashes) {
+		for (int i = 0; i < count; i++) {
+			hashes[i] = hash(names[offset + i]);
+		}
+	}
+
+	/**
+	 * Calculates the FNV hashes of many names encoded in UTF-8, stored in the same array (like a {@link NameArena}).
+	 * @param b
+	 * @param starts Position of every name in the array.
+	 * @param lengths Length in bytes of every name.
+	 * @param offset Index of the first name.
+	 * @param count How many names are hashed.
+	 * @param hashes Array where the hashes are written, starting at index 0.
+	 */
+	public static void hash(byte[] b, int[] starts, int[] lengths, int offset, int count, int[] hashes) {
+		for (int i = 0; i < count; i++) {
+			hashes[i] = hash(b, starts[offset + i], lengths[offset + i]);
+		}
+	}
+}
@@ -0,0 +1,466 @@
+package sporemodder.updater;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Updates SporeModder FX from the command line, without a display. No JavaFX class is loaded.
+ * It is used when the first argument is {@link #FLAG}; see {@link #USAGE} for the other options.
+ */
+public class HeadlessUpdater {
+	
+	/** Argument that selects the command line mode, it must be the first one. */
+	public static final String FLAG = "--headless";
+	
+	public static final int EXIT_SUCCESS = 0;
+	/** The update started but failed, the installation might be partially updated. */
+	public static final int EXIT_FAILED = 1;
+	/** The arguments were not valid, nothing was done. */
+	public static final int EXIT_USAGE = 2;
+	/** SporeModder FX did not close, nothing was done. */
+	public static final int EXIT_PROGRAM_RUNNING = 3;
+	/** --verify found problems, or --repair found problems it could not repair. */
+	public static final int EXIT_DAMAGED = 4;
+	
+	public static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: " + FLAG + " [options] <SporeModder FX folder>...",
+			"Options:",
+			"  --workers <n>    Number of threads used to update, 1 updates one file after another",
+			"                   (with several folders, each folder uses 1 by default)",
+			"  --list <file>    Also update the folders listed in a text file, one per line",
+			"  --parallel <n>   Number of folders updated at the same time, when there are several",
+			"  --pid <pid>      Process ID of SporeModder FX, to start as soon as it exits",
+			"  --no-wait        Do not wait for SporeModder FX to close",
+			"  --compact        Remove the lines of the registries that have no effect",
+			"  --transactional  Update a copy of the folder made of hard links, which replaces it only if",
+			"                   everything succeeds; the replaced version is kept for --rollback",
+			"  --rollback       Restore the version replaced by the last transactional update, and exit",
+			"  --verify         Check the installed files and registries without modifying them, and exit",
+			"  --repair         Check the installation, and only update what is missing, different or outdated",
+			"  --report <file>  Where the report of --verify or --repair is written, by default",
+			"                   " + Updater.VERIFY_FILE + " in the folder",
+			"  --summary        Write the timings of the update into " + Updater.SUMMARY_FILE + " in the folder",
+			"  --launch         Start SporeModder FX after updating",
+			"  --quiet          Only print errors",
+			"Exit codes: 0 updated, 1 update failed, 2 invalid arguments, 3 SporeModder FX did not close,",
+			"4 --verify found problems (or --repair found problems it could not repair)",
+			"With several folders, the exit code is the worst of all of them; --pid, --launch and --report need a single folder.");
+	
+	private static class Options {
+		final List<File> folders = new ArrayList<>();
+		int workerCount = -1;
+		int parallelism = -1;
+		long pid = -1;
+		boolean wait = true;
+		boolean compact;
+		boolean transactional;
+		boolean rollback;
+		boolean verify;
+		boolean repair;
+		File report;
+		boolean summary;
+		boolean launch;
+		boolean quiet;
+		boolean help;
+		
+		static Options parse(String[] args) {
+			Options options = new Options();
+			// The first argument is the flag
+			for (int i = 1; i < args.length; i++) {
+				String arg = args[i];
+				switch (arg) {
+				case "--workers":
+					if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for --workers");
+					try {
+						options.workerCount = Integer.parseInt(args[++i]);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid value for --workers: " + args[i]);
+					}
+					if (options.workerCount < 1) throw new IllegalArgumentException("--workers must be at least 1");
+					break;
+				case "--parallel":
+					if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for --parallel");
+					try {
+						options.parallelism = Integer.parseInt(args[++i]);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid value for --parallel: " + args[i]);
+					}
+					if (options.parallelism < 1) throw new IllegalArgumentException("--parallel must be at least 1");
+					break;
+				case "--list":
+					if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for --list");
+					try {
+						for (String line : Files.readAllLines(Paths.get(args[++i]))) {
+							if (!line.trim().isEmpty()) options.folders.add(new File(line.trim()));
+						}
+					} catch (IOException e) {
+						throw new IllegalArgumentException("Cannot read the list of folders: " + args[i]);
+					}
+					break;
+				case "--pid":
+					if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for --pid");
+					try {
+						options.pid = Long.parseLong(args[++i]);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid value for --pid: " + args[i]);
+					}
+					break;
+				case "--no-wait":
+					options.wait = false;
+					break;
+				case "--compact":
+					options.compact = true;
+					break;
+				case "--transactional":
+					options.transactional = true;
+					break;
+				case "--rollback":
+					options.rollback = true;
+					break;
+				case "--verify":
+					options.verify = true;
+					break;
+				case "--repair":
+					options.repair = true;
+					break;
+				case "--report":
+					if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for --report");
+					options.report = new File(args[++i]);
+					break;
+				case "--summary":
+					options.summary = true;
+					break;
+				case "--launch":
+					options.launch = true;
+					break;
+				case "--quiet":
+					options.quiet = true;
+					break;
+				case "--help":
+					options.help = true;
+					break;
+				default:
+					if (arg.startsWith("--")) throw new IllegalArgumentException("Unknown option: " + arg);
+					options.folders.add(new File(arg));
+				}
+			}
+			if (options.folders.isEmpty() && !options.help) {
+				throw new IllegalArgumentException("Missing SporeModder FX folder");
+			}
+			if (options.folders.size() > 1 && (options.pid != -1 || options.launch || options.report != null)) {
+				throw new IllegalArgumentException("--pid, --launch and --report can only be used with a single folder");
+			}
+			if (options.rollback && (options.verify || options.repair)) {
+				throw new IllegalArgumentException("--rollback cannot be used with --verify or --repair");
+			}
+			return options;
+		}
+	}
+	
+	/**
+	 * Returns true if the arguments select the command line mode.
+	 * @param args
+	 * @return
+	 */
+	public static boolean isHeadless(String[] args) {
+		return args.length != 0 && args[0].equals(FLAG);
+	}
+	
+	public static void main(String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+	
+	/**
+	 * Executes the update described by the arguments, and returns the exit code.
+	 * @param args
+	 * @param out Where progress is printed.
+	 * @param err Where errors are printed.
+	 * @return
+	 */
+	public static int run(String[] args, PrintStream out, PrintStream err) {
+		Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return EXIT_USAGE;
+		}
+		if (options.help) {
+			out.println(USAGE);
+			return EXIT_SUCCESS;
+		}
+		if (options.folders.size() > 1) {
+			if (options.verify || options.repair) return verifyAll(options, out, err);
+			return options.rollback ? rollbackAll(options, out, err) : runBatch(options, out, err);
+		}
+		File folder = options.folders.get(0);
+		try {
+			// A transactional update or a rollback might have been interrupted while renaming the folder
+			UpdateTransaction.recover(folder);
+		} catch (IOException e) {
+			e.printStackTrace(err);
+		}
+		if (!folder.isDirectory()) {
+			err.println("Not a folder: " + folder);
+			return EXIT_USAGE;
+		}
+		
+		if (options.verify || options.repair) {
+			return verify(folder, options, out, err);
+		}
+		
+		if (options.wait && !UpdatePlan.waitForProgram(folder, options.pid)) {
+			err.println("SporeModder FX is still running, close it before updating.");
+			return EXIT_PROGRAM_RUNNING;
+		}
+		
+		if (options.rollback) {
+			return rollback(folder, options, out, err);
+		}
+		
+		Updater updater = new Updater(folder);
+		try {
+			UpdatePlan.setupTask(updater);
+		} catch (IOException e) {
+			err.println("Updater failed, the installation was not modified.");
+			e.printStackTrace(err);
+			return EXIT_FAILED;
+		}
+		configure(updater, options);
+		setListener(updater, options, out);
+		
+		try {
+			updater.call();
+		} catch (Exception e) {
+			err.println(updater.isTransactional() ? "Updater failed, the installation was not modified." 
+					: "Updater failed, the installation might be incomplete.");
+			e.printStackTrace(err);
+			return EXIT_FAILED;
+		}
+		
+		if (options.launch) {
+			try {
+				UpdatePlan.launchProgram(folder);
+			} catch (IOException e) {
+				// The update itself succeeded
+				e.printStackTrace(err);
+			}
+		}
+		return EXIT_SUCCESS;
+	}
+	
+	/** Applies the options that are the same for a single folder and for many. */
+	private static void configure(Updater updater, Options options) {
+		if (options.workerCount != -1) {
+			updater.setWorkerCount(options.workerCount);
+		}
+		updater.setCompactRegistries(options.compact);
+		if (options.transactional) {
+			updater.setTransactional(true);
+		}
+		if (options.summary) {
+			updater.setSummaryFile(new File(updater.getDestFolder(), Updater.SUMMARY_FILE));
+		}
+	}
+	
+	/** Prints the progress and the summary of the updater, unless the output is quiet. */
+	private static void setListener(Updater updater, Options options, PrintStream out) {
+		if (options.quiet) return;
+		updater.setListener(new Updater.Listener() {
+			@Override
+			public void progress(long done, long total) {
+				out.println("[" + (total == 0 ? 100 : done * 100 / total) + "%]");
+			}
+			
+			@Override
+			public void message(String message) {
+				out.println(message);
+			}
+		});
+	}
+	
+	/** Verifies a folder, and repairs it with --repair; the report is written even if the repair fails. */
+	private static int verify(File folder, Options options, PrintStream out, PrintStream err) {
+		// Checking does not modify anything, so it can be done while SporeModder FX runs
+		if (options.repair && options.wait && !UpdatePlan.waitForProgram(folder, options.pid)) {
+			err.println("SporeModder FX is still running in " + folder + ", close it before repairing.");
+			return EXIT_PROGRAM_RUNNING;
+		}
+		
+		Updater updater = new Updater(folder);
+		try {
+			UpdatePlan.setupTask(updater);
+		} catch (IOException e) {
+			err.println("Updater failed, the installation was not modified.");
+			e.printStackTrace(err);
+			return EXIT_FAILED;
+		}
+		configure(updater, options);
+		setListener(updater, options, out);
+		
+		VerifyReport report;
+		try {
+			report = updater.verify();
+		} catch (Exception e) {
+			err.println("Could not verify " + folder + ", it was not modified.");
+			e.printStackTrace(err);
+			return EXIT_FAILED;
+		}
+		if (!options.quiet) {
+			for (VerifyReport.Item item : report.getProblems()) {
+				out.println(item.getStatus().getName() + ": " + item.path + (item.isRepairable() ? "" : " (cannot be repaired)"));
+			}
+		}
+		
+		int exitCode = report.hasProblems() ? EXIT_DAMAGED : EXIT_SUCCESS;
+		if (options.repair && report.hasProblems()) {
+			try {
+				updater.repair(report);
+				exitCode = EXIT_SUCCESS;
+				for (VerifyReport.Item item : report.getProblems()) {
+					if (!item.isRepairable()) exitCode = EXIT_DAMAGED;
+				}
+			} catch (Exception e) {
+				err.println(updater.isTransactional() ? "Repair failed, the installation was not modified." 
+						: "Repair failed, the installation might be incomplete.");
+				e.printStackTrace(err);
+				exitCode = EXIT_FAILED;
+			}
+		}
+		
+		File reportFile = options.report != null ? options.report : new File(folder, Updater.VERIFY_FILE);
+		try {
+			Files.createDirectories(reportFile.getAbsoluteFile().toPath().getParent());
+			// The previous version of a transactional update might share the file, so it is not overwritten in place
+			Files.deleteIfExists(reportFile.toPath());
+			report.write(reportFile.toPath());
+		} catch (IOException e) {
+			err.println("Could not write the report into " + reportFile);
+			e.printStackTrace(err);
+			exitCode = worstExitCode(exitCode, EXIT_FAILED);
+		}
+		return exitCode;
+	}
+	
+	private static int verifyAll(Options options, PrintStream out, PrintStream err) {
+		int exitCode = EXIT_SUCCESS;
+		for (File folder : options.folders) {
+			try {
+				UpdateTransaction.recover(folder);
+			} catch (IOException e) {
+				e.printStackTrace(err);
+			}
+			int code;
+			if (!folder.isDirectory()) {
+				err.println("Not a folder: " + folder);
+				code = EXIT_FAILED;
+			} else {
+				if (!options.quiet) out.println("Verifying " + folder);
+				code = verify(folder, options, out, err);
+			}
+			exitCode = worstExitCode(exitCode, code);
+		}
+		return exitCode;
+	}
+	
+	private static int rollback(File folder, Options options, PrintStream out, PrintStream err) {
+		try {
+			UpdateTransaction.rollback(folder);
+		} catch (IOException e) {
+			err.println("Could not restore the previous version of " + folder);
+			e.printStackTrace(err);
+			return EXIT_FAILED;
+		}
+		if (!options.quiet) out.println("Restored the previous version of " + folder);
+		return EXIT_SUCCESS;
+	}
+	
+	private static int rollbackAll(Options options, PrintStream out, PrintStream err) {
+		int exitCode = EXIT_SUCCESS;
+		for (File folder : options.folders) {
+			try {
+				UpdateTransaction.recover(folder);
+			} catch (IOException e) {
+				e.printStackTrace(err);
+			}
+			int code;
+			if (options.wait && !UpdatePlan.waitForProgram(folder, -1)) {
+				err.println("SporeModder FX is still running in " + folder);
+				code = EXIT_PROGRAM_RUNNING;
+			} else {
+				code = rollback(folder, options, out, err);
+			}
+			exitCode = worstExitCode(exitCode, code);
+		}
+		return exitCode;
+	}
+	
+	/** Updates many folders with a {@link BatchUpdater}, printing the result of each one as soon as it finishes. */
+	private static int runBatch(Options options, PrintStream out, PrintStream err) {
+		BatchUpdater batch = new BatchUpdater(options.folders);
+		if (options.parallelism != -1) {
+			batch.setParallelism(options.parallelism);
+		}
+		batch.setWaitForProgram(options.wait);
+		batch.setConfigurator(updater -> configure(updater, options));
+		batch.setListener(result -> {
+			synchronized (out) {
+				switch (result.status) {
+				case UPDATED:
+					if (!options.quiet) out.println("Updated " + result.folder + ": " + result.message);
+					break;
+				case PROGRAM_RUNNING:
+					err.println("SporeModder FX is still running in " + result.folder);
+					break;
+				case FAILED:
+					err.println((result.updater.isTransactional() ? "Failed, not modified: " : "Failed, might be incomplete: ") + result.folder);
+					result.error.printStackTrace(err);
+					break;
+				}
+			}
+		});
+		
+		long startTime = System.nanoTime();
+		List<BatchUpdater.Result> results;
+		try {
+			results = batch.run();
+		} catch (IOException | InterruptedException e) {
+			err.println("Could not read the resources of the updater, no folder was modified.");
+			e.printStackTrace(err);
+			return EXIT_FAILED;
+		}
+		
+		int exitCode = EXIT_SUCCESS;
+		int updated = 0;
+		for (BatchUpdater.Result result : results) {
+			switch (result.status) {
+			case UPDATED:
+				++updated;
+				break;
+			case PROGRAM_RUNNING:
+				exitCode = worstExitCode(exitCode, EXIT_PROGRAM_RUNNING);
+				break;
+			case FAILED:
+				exitCode = worstExitCode(exitCode, EXIT_FAILED);
+				break;
+			}
+		}
+		if (!options.quiet) {
+			out.println(String.format(Locale.ROOT, "Updated %d of %d folders in %.2f s", updated, results.size(), (System.nanoTime() - startTime) / 1e9));
+		}
+		return exitCode;
+	}
+	
+	/** A failed update is worse than one that did not start because SporeModder FX was running. */
+	private static int worstExitCode(int a, int b) {
+		if (a == EXIT_FAILED || b == EXIT_FAILED) return EXIT_FAILED;
+		return Math.max(a, b);
+	}
+}
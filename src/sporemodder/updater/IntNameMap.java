@@ -0,0 +1,266 @@
+package sporemodder.updater;
+
+import java.util.Arrays;
+
+/**
+ * A map from 32-bit hashes to names that keeps the insertion order, like a <code>LinkedHashMap&lt;Integer, String&gt;</code>
+ * but without boxing: entries are kept in parallel <code>int</code> arrays, indexed by an open-addressing table,
+ * and names are stored in a {@link NameArena}.
+ * <p>
+ * Entries are identified by their position, from 0 to {@link #entryCount()}; removed entries keep their position
+ * (until the map grows) but are no longer live, see {@link #isLive(int)}. Replacing the name of an existing hash
+ * keeps its position. Lookups never modify the map, so it can be read by many threads at the same time.
+ */
+public class IntNameMap {
+
+	private static final int EMPTY = -1;
+
+	private final NameArena arena;
+
+	private int[] keys;
+	private int[] refs;
+	private int entryCount;
+	private int size;
+
+	/** Open-addressing table with linear probing, it contains entry indices or EMPTY. */
+	private int[] table;
+	private int mask;
+
+	public IntNameMap(NameArena arena) {
+		this(arena, 16);
+	}
+
+	public IntNameMap(NameArena arena, int capacity) {
+		this.arena = arena;
+		keys = new int[Math.max(capacity, 4)];
+		refs = new int[keys.length];
+		allocateTable(keys.length * 2);
+	}
+
+	/**
+	 * Creates a copy of another map, whose names are in the given arena (a copy of the arena of the other map).
+	 * @param arena
+	 * @param other
+	 */
+	public IntNameMap(NameArena arena, IntNameMap other) {
+		this.arena = arena;
+		keys = other.keys.clone();
+		refs = other.refs.clone();
+		entryCount = other.entryCount;
+		size = other.size;
+		table = other.table.clone();
+		mask = other.mask;
+	}
+
+	public NameArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * Returns how many live entries there are in the map.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns how many entries have been added to the map, including removed ones.
+	 * @return
+	 */
+	public int entryCount() {
+		return entryCount;
+	}
+
+	public boolean isLive(int index) {
+		return refs[index] != EMPTY;
+	}
+
+	public int keyAt(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * Returns the reference in the arena of the name of the entry at the given position.
+	 * @param index
+	 * @return
+	 */
+	public int refAt(int index) {
+		return refs[index];
+	}
+
+	public String nameAt(int index) {
+		return arena.get(refs[index]);
+	}
+
+	public void clear() {
+		entryCount = 0;
+		size = 0;
+		Arrays.fill(table, EMPTY);
+	}
+
+	/**
+	 * Returns the position of the entry with the given hash, or -1 if it is not in the map.
+	 * @param key
+	 * @return
+	 */
+	public int indexOf(int key) {
+		int slot = mix(key) & mask;
+		int index;
+		while ((index = table[slot]) != EMPTY) {
+			if (keys[index] == key) return index;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	public boolean containsKey(int key) {
+		return indexOf(key) != -1;
+	}
+
+	/**
+	 * Returns the name assigned to the given hash, or null.
+	 * @param key
+	 * @return
+	 */
+	public String get(int key) {
+		int index = indexOf(key);
+		return index == -1 ? null : arena.get(refs[index]);
+	}
+
+	/**
+	 * Returns true if the given hash is assigned to exactly the given name. Nothing is allocated.
+	 * @param key
+	 * @param name
+	 * @return
+	 */
+	public boolean containsEntry(int key, CharSequence name) {
+		int index = indexOf(key);
+		return index != -1 && arena.equals(refs[index], name);
+	}
+
+	/**
+	 * Returns true if the given hash is assigned to exactly the given name, stored in another arena.
+	 * @param key
+	 * @param other
+	 * @param ref
+	 * @return
+	 */
+	public boolean containsEntry(int key, NameArena other, int ref) {
+		int index = indexOf(key);
+		return index != -1 && arena.equals(refs[index], other.array(), other.start(ref), other.length(ref));
+	}
+
+	public void put(int key, String name) {
+		put(key, arena.add(name));
+	}
+
+	/**
+	 * Assigns a name, already stored in the arena, to the given hash.
+	 * If the hash was already in the map, its name is replaced but the entry keeps its position.
+	 * @param key
+	 * @param ref
+	 */
+	public void put(int key, int ref) {
+		int slot = mix(key) & mask;
+		int index;
+		while ((index = table[slot]) != EMPTY) {
+			if (keys[index] == key) {
+				refs[index] = ref;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (entryCount == keys.length) {
+			if (size < entryCount - (entryCount >> 2)) {
+				// Many entries were removed, reclaim their positions instead of growing
+				rehash();
+				put(key, ref);
+				return;
+			}
+			keys = Arrays.copyOf(keys, entryCount + (entryCount >> 1));
+			refs = Arrays.copyOf(refs, keys.length);
+		}
+		keys[entryCount] = key;
+		refs[entryCount] = ref;
+		table[slot] = entryCount;
+		++entryCount;
+		++size;
+
+		// Keep the load factor under 0.5
+		if (size * 2 > table.length) {
+			rehash();
+		}
+	}
+
+	/**
+	 * Removes the entry with the given hash, if any.
+	 * @param key
+	 * @return True if the entry existed.
+	 */
+	public boolean remove(int key) {
+		int slot = mix(key) & mask;
+		int index;
+		while ((index = table[slot]) != EMPTY) {
+			if (keys[index] == key) {
+				refs[index] = EMPTY;
+				--size;
+				deleteSlot(slot);
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/** Backward-shift deletion, so that lookups never need tombstones. */
+	private void deleteSlot(int slot) {
+		int hole = slot;
+		int next = (slot + 1) & mask;
+		int index;
+		while ((index = table[next]) != EMPTY) {
+			int ideal = mix(keys[index]) & mask;
+			// Move the entry into the hole if its ideal slot is not between the hole and its current slot
+			if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+				table[hole] = index;
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		table[hole] = EMPTY;
+	}
+
+	private void rehash() {
+		// Drop removed entries while we are at it
+		if (size != entryCount) {
+			int j = 0;
+			for (int i = 0; i < entryCount; i++) {
+				if (refs[i] != EMPTY) {
+					keys[j] = keys[i];
+					refs[j] = refs[i];
+					++j;
+				}
+			}
+			entryCount = j;
+		}
+		allocateTable(size * 2);
+		for (int i = 0; i < entryCount; i++) {
+			int slot = mix(keys[i]) & mask;
+			while (table[slot] != EMPTY) slot = (slot + 1) & mask;
+			table[slot] = i;
+		}
+	}
+
+	private void allocateTable(int minCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(minCapacity, 8) * 2 - 1);
+		table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+		mask = capacity - 1;
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
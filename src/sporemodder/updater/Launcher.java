@@ -2,6 +2,11 @@ package sporemodder.updater;
 
 public class Launcher {
 	public static void main(String[] args) {
-		UpdaterApp.main(args);
+		// The command line mode must not load the user interface classes
+		if (HeadlessUpdater.isHeadless(args)) {
+			HeadlessUpdater.main(args);
+		} else {
+			UpdaterApp.main(args);
+		}
 	}
 }
@@ -0,0 +1,328 @@
+package sporemodder.updater;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable block of memory that stores names as UTF-8 bytes, one after another.
+ * Every name is prefixed by its length (as a variable-length integer), so a name can be
+ * referenced by a single <code>int</code>: the offset of its length prefix.
+ * <p>
+ * The arena is shared by the maps of a {@link NameRegistry}, so a name used in both
+ * directions is only stored once. Names are never removed, the whole arena can only be cleared.
+ */
+public class NameArena {
+
+	private byte[] bytes;
+	private int size;
+
+	public NameArena() {
+		this(1024);
+	}
+
+	public NameArena(int capacity) {
+		bytes = new byte[Math.max(capacity, 16)];
+	}
+
+	/**
+	 * Creates an arena that uses the given bytes, which must already contain names in the arena format
+	 * (for example, the string pool of a {@link RegistrySnapshot}).
+	 * @param bytes
+	 * @param size How many bytes are used.
+	 */
+	public NameArena(byte[] bytes, int size) {
+		this.bytes = bytes;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a copy of another arena; references to its names are valid in the copy.
+	 * @param other
+	 */
+	public NameArena(NameArena other) {
+		this.bytes = Arrays.copyOf(other.bytes, Math.max(other.size, 16));
+		this.size = other.size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns how many bytes are used by the names stored in this arena.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the internal byte array. Names are located using {@link #start(int)} and {@link #length(int)};
+	 * the array must not be modified.
+	 * @return
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	/**
+	 * Stores the UTF-8 representation of the given name, and returns the reference to it.
+	 * @param name
+	 * @return
+	 */
+	public int add(CharSequence name) {
+		int length = utf8Length(name);
+		int ref = allocate(length);
+		int pos = start(ref);
+		int count = name.length();
+		for (int i = 0; i < count; i++) {
+			char c = name.charAt(i);
+			if (c < 0x80) {
+				bytes[pos++] = (byte) c;
+			} else {
+				int cp = codePointAt(name, i);
+				if (cp > 0xFFFF) ++i;
+				int packed = utf8(cp);
+				for (int j = utf8Count(cp); j > 0; j--) {
+					bytes[pos++] = (byte) packed;
+					packed >>>= 8;
+				}
+			}
+		}
+		return ref;
+	}
+
+	/**
+	 * Stores a name that is already encoded in UTF-8, and returns the reference to it.
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int add(byte[] src, int offset, int length) {
+		int ref = allocate(length);
+		System.arraycopy(src, offset, bytes, start(ref), length);
+		return ref;
+	}
+
+	private int allocate(int length) {
+		int ref = size;
+		int needed = size + 5 + length;
+		if (needed > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length + (bytes.length >> 1)));
+		}
+		int value = length;
+		while (value >= 0x80) {
+			bytes[size++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		bytes[size++] = (byte) value;
+		size += length;
+		return ref;
+	}
+
+	/**
+	 * Returns the offset, in the internal array, of the first byte of the referenced name.
+	 * @param ref
+	 * @return
+	 */
+	public int start(int ref) {
+		while (bytes[ref] < 0) ref++;
+		return ref + 1;
+	}
+
+	/**
+	 * Returns the length in bytes of the referenced name.
+	 * @param ref
+	 * @return
+	 */
+	public int length(int ref) {
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = bytes[ref++];
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return length;
+	}
+
+	/**
+	 * Decodes the referenced name into a string.
+	 * @param ref
+	 * @return
+	 */
+	public String get(int ref) {
+		return new String(bytes, start(ref), length(ref), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns true if the referenced name is equal to the given string. Nothing is allocated.
+	 * @param ref
+	 * @param name
+	 * @return
+	 */
+	public boolean equals(int ref, CharSequence name) {
+		byte[] bytes = this.bytes;
+		int pos = start(ref);
+		int length = length(ref);
+		int count = name.length();
+		// UTF-8 never uses fewer bytes than UTF-16 chars, and only uses the same amount for ASCII
+		if (count == length) {
+			for (int i = 0; i < count; i++) {
+				if (bytes[pos + i] != name.charAt(i)) return false;
+			}
+			return true;
+		}
+		// Kept apart so that the common ASCII comparison is small enough to be inlined into the lookups
+		return count < length && equalsEncoded(pos, pos + length, name);
+	}
+
+	private boolean equalsEncoded(int pos, int end, CharSequence name) {
+		for (int i = 0, count = name.length(); i < count; i++) {
+			char c = name.charAt(i);
+			if (c < 0x80) {
+				if (pos == end || bytes[pos++] != c) return false;
+			} else {
+				int cp = codePointAt(name, i);
+				if (cp > 0xFFFF) ++i;
+				int packed = utf8(cp);
+				for (int j = utf8Count(cp); j > 0; j--) {
+					if (pos == end || bytes[pos++] != (byte) packed) return false;
+					packed >>>= 8;
+				}
+			}
+		}
+		return pos == end;
+	}
+
+	/**
+	 * Returns true if the referenced name is equal to the given UTF-8 bytes.
+	 * @param ref
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public boolean equals(int ref, byte[] src, int offset, int length) {
+		if (length(ref) != length) return false;
+		int start = start(ref);
+		for (int i = 0; i < length; i++) {
+			if (bytes[start + i] != src[offset + i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the last character of the referenced name is the given ASCII character.
+	 * @param ref
+	 * @param c
+	 * @return
+	 */
+	public boolean endsWith(int ref, char c) {
+		int length = length(ref);
+		return length != 0 && bytes[start(ref) + length - 1] == c;
+	}
+
+	/**
+	 * Returns the hash code of the referenced name, which is the same as the <code>hashCode()</code> of the decoded string.
+	 * This is only used to index names in hash tables, it is not the FNV hash used by Spore.
+	 * @param ref
+	 * @return
+	 */
+	public int hash(int ref) {
+		return hash(bytes, start(ref), length(ref));
+	}
+
+	/**
+	 * Returns the <code>hashCode()</code> that the given UTF-8 bytes would have once decoded into a string.
+	 * Only names that are not pure ASCII need to be decoded.
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static int hash(byte[] src, int offset, int length) {
+		int h = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			if (src[i] < 0) {
+				return new String(src, offset, length, StandardCharsets.UTF_8).hashCode();
+			}
+			h = 31 * h + src[i];
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the hash code of the given name, consistent with {@link #hash(int)}.
+	 * @param name
+	 * @return
+	 */
+	public static int hash(CharSequence name) {
+		if (name instanceof String) {
+			// Strings cache their hash code
+			return name.hashCode();
+		}
+		int h = 0;
+		for (int i = 0, count = name.length(); i < count; i++) {
+			h = 31 * h + name.charAt(i);
+		}
+		return h;
+	}
+
+	private static int utf8Length(CharSequence name) {
+		int length = 0;
+		int count = name.length();
+		for (int i = 0; i < count; i++) {
+			char c = name.charAt(i);
+			if (c < 0x80) {
+				++length;
+			} else {
+				int cp = codePointAt(name, i);
+				if (cp > 0xFFFF) ++i;
+				length += utf8Count(cp);
+			}
+		}
+		return length;
+	}
+
+	/** Returns the code point at the given index; unpaired surrogates become '?', like in String.getBytes(). */
+	private static int codePointAt(CharSequence name, int index) {
+		char c = name.charAt(index);
+		if (Character.isHighSurrogate(c)) {
+			if (index + 1 < name.length() && Character.isLowSurrogate(name.charAt(index + 1))) {
+				return Character.toCodePoint(c, name.charAt(index + 1));
+			}
+			return '?';
+		}
+		else if (Character.isLowSurrogate(c)) {
+			return '?';
+		}
+		return c;
+	}
+
+	private static int utf8Count(int cp) {
+		if (cp < 0x80) return 1;
+		else if (cp < 0x800) return 2;
+		else if (cp < 0x10000) return 3;
+		else return 4;
+	}
+
+	/** Returns the UTF-8 bytes of a code point packed in an int, first byte in the lowest bits. */
+	private static int utf8(int cp) {
+		if (cp < 0x80) {
+			return cp;
+		}
+		else if (cp < 0x800) {
+			return (0xC0 | (cp >> 6)) | (0x80 | (cp & 0x3F)) << 8;
+		}
+		else if (cp < 0x10000) {
+			return (0xE0 | (cp >> 12)) | (0x80 | ((cp >> 6) & 0x3F)) << 8 | (0x80 | (cp & 0x3F)) << 16;
+		}
+		else {
+			return (0xF0 | (cp >> 18)) | (0x80 | ((cp >> 12) & 0x3F)) << 8
+					| (0x80 | ((cp >> 6) & 0x3F)) << 16 | (0x80 | (cp & 0x3F)) << 24;
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package sporemodder.updater;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An immutable index of the names of a {@link NameRegistry}, to find names by prefix or regardless of their case.
+ * <p>
+ * Names are sorted by their lowercase UTF-8 bytes and front coded: each name only stores the bytes that differ from
+ * the previous one, which share most of their prefix (folders, common stems, and the ~ variants of a name).
+ * The original case is stored as a bitmask of the uppercase letters. Every {@link #BLOCK_SIZE} names the full name is
+ * stored, so a query does a binary search over the blocks and then only decodes the names of one block onwards.
+ * <p>
+ * Each entry is: varint shared prefix length, varint (suffix length << 2 | case mode), suffix bytes, 4 bytes of hash,
+ * and then the case data: nothing, a bitmask with a bit per byte, or the original name (varint length and bytes) if
+ * it cannot be restored from the lowercase name.
+ */
+public class NameIndex {
+	/**
+	 * Receives the names found by a query.
+	 */
+	public interface Visitor {
+		/**
+		 * @param name
+		 * @param hash
+		 * @return False to stop the query.
+		 */
+		public boolean visit(String name, int hash);
+	}
+
+	/** Number of names between two fully stored names. */
+	public static final int BLOCK_SIZE = 16;
+
+	private static final int CASE_LOWER = 0;
+	private static final int CASE_MASK = 1;
+	private static final int CASE_ORIGINAL = 2;
+
+	private final byte[] data;
+	/** Offset of the first entry of every block. */
+	private final int[] blocks;
+	private final int size;
+	private final int maxLength;
+
+	private NameIndex(byte[] data, int[] blocks, int size, int maxLength) {
+		this.data = data;
+		this.blocks = blocks;
+		this.size = size;
+		this.maxLength = maxLength;
+	}
+
+	private static class Item {
+		final byte[] key;
+		final byte[] name;
+		final int hash;
+
+		Item(byte[] key, byte[] name, int hash) {
+			this.key = key;
+			this.name = name;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Builds the index of all the names of a registry, with the hash they are assigned to. The registry can be modified
+	 * after this without affecting the index.
+	 * @param registry
+	 * @return
+	 */
+	public static NameIndex build(NameRegistry registry) {
+		IntNameMap names = registry.names;
+		NameArena arena = registry.arena;
+		byte[] bytes = arena.array();
+		List<Item> items = new ArrayList<>(names.size());
+		for (int i = 0, count = names.entryCount(); i < count; i++) {
+			if (!names.isLive(i)) continue;
+			int ref = names.refAt(i);
+			int start = arena.start(ref);
+			byte[] name = Arrays.copyOfRange(bytes, start, start + arena.length(ref));
+			items.add(new Item(toKey(name), name, names.keyAt(i)));
+		}
+		items.sort((a, b) -> {
+			int result = Arrays.compareUnsigned(a.key, b.key);
+			return result != 0 ? result : Integer.compareUnsigned(a.hash, b.hash);
+		});
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int[] blocks = new int[(items.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		int maxLength = 0;
+		byte[] previous = new byte[0];
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			byte[] key = item.key;
+			int shared = 0;
+			if (i % BLOCK_SIZE == 0) {
+				blocks[i / BLOCK_SIZE] = out.size();
+			} else {
+				shared = Arrays.mismatch(previous, key);
+				if (shared == -1) shared = key.length;
+			}
+			shared = Math.min(shared, key.length);
+			maxLength = Math.max(maxLength, Math.max(key.length, item.name.length));
+
+			byte[] mask = getCaseMask(key, item.name);
+			int mode = mask == null ? CASE_ORIGINAL : (isZero(mask) ? CASE_LOWER : CASE_MASK);
+			writeVarint(out, shared);
+			writeVarint(out, (key.length - shared) << 2 | mode);
+			out.write(key, shared, key.length - shared);
+			out.write(item.hash >>> 24);
+			out.write(item.hash >>> 16);
+			out.write(item.hash >>> 8);
+			out.write(item.hash);
+			if (mode == CASE_MASK) {
+				out.write(mask, 0, mask.length);
+			} else if (mode == CASE_ORIGINAL) {
+				writeVarint(out, item.name.length);
+				out.write(item.name, 0, item.name.length);
+			}
+			previous = key;
+		}
+		return new NameIndex(out.toByteArray(), blocks, items.size(), maxLength);
+	}
+
+	/** Returns the key of a name: its lowercase UTF-8 bytes. */
+	private static byte[] toKey(byte[] name) {
+		for (byte b : name) {
+			if (b < 0) {
+				return new String(name, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+			}
+		}
+		byte[] key = name.clone();
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] >= 'A' && key[i] <= 'Z') key[i] += 'a' - 'A';
+		}
+		return key;
+	}
+
+	private static byte[] toKey(String name) {
+		return name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Returns the bits of the key bytes that are uppercase ASCII letters in the name, or null if they differ in any other way. */
+	private static byte[] getCaseMask(byte[] key, byte[] name) {
+		if (key.length != name.length) return null;
+		byte[] mask = new byte[(key.length + 7) / 8];
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] != name[i]) {
+				if (name[i] < 'A' || name[i] > 'Z' || key[i] != name[i] + ('a' - 'A')) return null;
+				mask[i >> 3] |= 1 << (i & 7);
+			}
+		}
+		return mask;
+	}
+
+	private static boolean isZero(byte[] mask) {
+		for (byte b : mask) {
+			if (b != 0) return false;
+		}
+		return true;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Returns how many names are in the index. A name assigned to more than one hash is counted once per hash.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the approximate memory used by the index, in bytes.
+	 * @return
+	 */
+	public long getMemorySize() {
+		return data.length + 4L * blocks.length;
+	}
+
+	/**
+	 * Visits all the names that start with the given prefix, ignoring case, sorted by their lowercase name.
+	 * @param prefix
+	 * @param visitor
+	 * @return How many names were visited.
+	 */
+	public int findPrefix(String prefix, Visitor visitor) {
+		return find(toKey(prefix), false, visitor);
+	}
+
+	/**
+	 * Returns the first names that start with the given prefix, ignoring case, sorted by their lowercase name.
+	 * @param prefix
+	 * @param limit Maximum number of names returned.
+	 * @return
+	 */
+	public List<String> findPrefix(String prefix, int limit) {
+		List<String> result = new ArrayList<>();
+		if (limit > 0) {
+			findPrefix(prefix, (name, hash) -> {
+				result.add(name);
+				return result.size() < limit;
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Visits all the names that are equal to the given one, ignoring case.
+	 * @param name
+	 * @param visitor
+	 * @return How many names were visited.
+	 */
+	public int findIgnoreCase(String name, Visitor visitor) {
+		return find(toKey(name), true, visitor);
+	}
+
+	/**
+	 * Returns true if the index contains the given name, ignoring case.
+	 * @param name
+	 * @return
+	 */
+	public boolean containsIgnoreCase(String name) {
+		return findIgnoreCase(name, (n, hash) -> false) != 0;
+	}
+
+	private int find(byte[] query, boolean exact, Visitor visitor) {
+		if (size == 0) return 0;
+		byte[] key = new byte[maxLength];
+		byte[] name = null;
+		int visited = 0;
+		int pos = blocks[findBlock(query)];
+		while (pos < data.length) {
+			// Decode the entry
+			int value = data[pos++];
+			int shared = value & 0x7F;
+			for (int shift = 7; value < 0; shift += 7) {
+				value = data[pos++];
+				shared |= (value & 0x7F) << shift;
+			}
+			value = data[pos++];
+			int info = value & 0x7F;
+			for (int shift = 7; value < 0; shift += 7) {
+				value = data[pos++];
+				info |= (value & 0x7F) << shift;
+			}
+			int suffix = info >>> 2;
+			int mode = info & 3;
+			System.arraycopy(data, pos, key, shared, suffix);
+			pos += suffix;
+			int length = shared + suffix;
+			int hash = (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+			pos += 4;
+			int caseStart = pos;
+			if (mode == CASE_MASK) {
+				pos += (length + 7) / 8;
+			} else if (mode == CASE_ORIGINAL) {
+				value = data[pos++];
+				int nameLength = value & 0x7F;
+				for (int shift = 7; value < 0; shift += 7) {
+					value = data[pos++];
+					nameLength |= (value & 0x7F) << shift;
+				}
+				caseStart = pos;
+				pos += nameLength;
+			}
+
+			// Names are sorted, so the first one after the query that does not match ends it
+			int compare = Arrays.compareUnsigned(key, 0, Math.min(length, query.length), query, 0, query.length);
+			if (compare < 0 || (compare == 0 && length < query.length)) continue;
+			if (compare > 0 || (exact && length != query.length)) break;
+
+			String result;
+			if (mode == CASE_LOWER) {
+				result = new String(key, 0, length, StandardCharsets.UTF_8);
+			} else if (mode == CASE_MASK) {
+				if (name == null) name = new byte[maxLength];
+				for (int i = 0; i < length; i++) {
+					boolean upper = (data[caseStart + (i >> 3)] & (1 << (i & 7))) != 0;
+					name[i] = upper ? (byte) (key[i] - ('a' - 'A')) : key[i];
+				}
+				result = new String(name, 0, length, StandardCharsets.UTF_8);
+			} else {
+				result = new String(data, caseStart, pos - caseStart, StandardCharsets.UTF_8);
+			}
+			++visited;
+			if (!visitor.visit(result, hash)) break;
+		}
+		return visited;
+	}
+
+	/** Returns the last block whose first name is before the query, where names starting with the query can start. */
+	private int findBlock(byte[] query) {
+		int low = 0;
+		int high = blocks.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			// The first entry of a block has no shared prefix, so its first varint is 0
+			int pos = blocks[mid] + 1;
+			int value = data[pos++];
+			int info = value & 0x7F;
+			for (int shift = 7; value < 0; shift += 7) {
+				value = data[pos++];
+				info |= (value & 0x7F) << shift;
+			}
+			int length = info >>> 2;
+			if (Arrays.compareUnsigned(data, pos, pos + length, query, 0, query.length) < 0) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,298 @@
+package sporemodder.updater;
+
+import java.util.Arrays;
+
+/**
+ * A map from names to 32-bit hashes that keeps the insertion order, like a <code>LinkedHashMap&lt;String, Integer&gt;</code>
+ * but without boxing: names are stored in a {@link NameArena} and the values in an <code>int</code> array,
+ * indexed by an open-addressing table. Names are compared exactly (case-sensitive); the hash code of every
+ * name is kept so that most mismatches are discarded without comparing the bytes. Lookups never modify the map,
+ * so it can be read by many threads at the same time.
+ * <p>
+ * Entries are identified by their position, from 0 to {@link #entryCount()}; removed entries keep their position
+ * (until the map grows) but are no longer live, see {@link #isLive(int)}.
+ */
+public class NameIntMap {
+
+	private static final int EMPTY = -1;
+
+	private final NameArena arena;
+
+	private int[] refs;
+	private int[] values;
+	private int[] hashCodes;
+	private int entryCount;
+	private int size;
+
+	/** Open-addressing table with linear probing, it contains entry indices or EMPTY. */
+	private int[] table;
+	private int mask;
+
+	public NameIntMap(NameArena arena) {
+		this(arena, 16);
+	}
+
+	public NameIntMap(NameArena arena, int capacity) {
+		this.arena = arena;
+		refs = new int[Math.max(capacity, 4)];
+		values = new int[refs.length];
+		hashCodes = new int[refs.length];
+		allocateTable(refs.length * 2);
+	}
+
+	/**
+	 * Creates a copy of another map, whose names are in the given arena (a copy of the arena of the other map).
+	 * @param arena
+	 * @param other
+	 */
+	public NameIntMap(NameArena arena, NameIntMap other) {
+		this.arena = arena;
+		refs = other.refs.clone();
+		values = other.values.clone();
+		hashCodes = other.hashCodes.clone();
+		entryCount = other.entryCount;
+		size = other.size;
+		table = other.table.clone();
+		mask = other.mask;
+	}
+
+	public NameArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * Returns how many live entries there are in the map.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns how many entries have been added to the map, including removed ones.
+	 * @return
+	 */
+	public int entryCount() {
+		return entryCount;
+	}
+
+	public boolean isLive(int index) {
+		return refs[index] != EMPTY;
+	}
+
+	/**
+	 * Returns the reference in the arena of the name of the entry at the given position.
+	 * @param index
+	 * @return
+	 */
+	public int refAt(int index) {
+		return refs[index];
+	}
+
+	public String nameAt(int index) {
+		return arena.get(refs[index]);
+	}
+
+	public int valueAt(int index) {
+		return values[index];
+	}
+
+	public void clear() {
+		entryCount = 0;
+		size = 0;
+		Arrays.fill(table, EMPTY);
+	}
+
+	/**
+	 * Returns the position of the entry with the given name, or -1 if it is not in the map.
+	 * @param name
+	 * @return
+	 */
+	public int indexOf(CharSequence name) {
+		int hashCode = NameArena.hash(name);
+		int slot = mix(hashCode) & mask;
+		int index;
+		while ((index = table[slot]) != EMPTY) {
+			if (hashCodes[index] == hashCode && arena.equals(refs[index], name)) return index;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the entry whose name is the given UTF-8 byte range, or -1 if it is not in the map.
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int indexOf(byte[] src, int offset, int length) {
+		int hashCode = NameArena.hash(src, offset, length);
+		int slot = mix(hashCode) & mask;
+		int index;
+		while ((index = table[slot]) != EMPTY) {
+			if (hashCodes[index] == hashCode && arena.equals(refs[index], src, offset, length)) return index;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	public boolean containsKey(CharSequence name) {
+		return indexOf(name) != -1;
+	}
+
+	/**
+	 * Assigns a value to the given name. If the name was already in the map,
+	 * its value is replaced but the entry keeps its position.
+	 * @param name
+	 * @param value
+	 * @return The position of the entry.
+	 */
+	public int put(String name, int value) {
+		int index = indexOf(name);
+		if (index != -1) {
+			values[index] = value;
+			return index;
+		} else {
+			return insert(arena.add(name), value);
+		}
+	}
+
+	/**
+	 * Assigns a value to a name already stored in the arena. If the name was already in the map,
+	 * its value is replaced but the entry keeps its position.
+	 * @param ref
+	 * @param value
+	 * @return The position of the entry.
+	 */
+	public int put(int ref, int value) {
+		byte[] bytes = arena.array();
+		int index = indexOf(bytes, arena.start(ref), arena.length(ref));
+		if (index != -1) {
+			values[index] = value;
+			return index;
+		} else {
+			return insert(ref, value);
+		}
+	}
+
+	/**
+	 * Assigns a value to a name given as UTF-8 bytes. The name is only copied into the arena if it was not in the map;
+	 * otherwise its value is replaced but the entry keeps its position.
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @param value
+	 * @return The position of the entry.
+	 */
+	public int put(byte[] src, int offset, int length, int value) {
+		int index = indexOf(src, offset, length);
+		if (index != -1) {
+			values[index] = value;
+			return index;
+		} else {
+			return insert(arena.add(src, offset, length), value);
+		}
+	}
+
+	private int insert(int ref, int value) {
+		if (entryCount == refs.length) {
+			if (size < entryCount - (entryCount >> 2)) {
+				// Many entries were removed, reclaim their positions instead of growing
+				rehash();
+			} else {
+				refs = Arrays.copyOf(refs, entryCount + (entryCount >> 1));
+				values = Arrays.copyOf(values, refs.length);
+				hashCodes = Arrays.copyOf(hashCodes, refs.length);
+			}
+		}
+		int hashCode = arena.hash(ref);
+		refs[entryCount] = ref;
+		values[entryCount] = value;
+		hashCodes[entryCount] = hashCode;
+		int slot = mix(hashCode) & mask;
+		while (table[slot] != EMPTY) slot = (slot + 1) & mask;
+		table[slot] = entryCount;
+		++entryCount;
+		++size;
+
+		// Keep the load factor under 0.5
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		// Rehashing might have moved it, but it is always the last one
+		return entryCount - 1;
+	}
+
+	/**
+	 * Removes the entry with the given name, if any.
+	 * @param name
+	 * @return True if the entry existed.
+	 */
+	public boolean remove(CharSequence name) {
+		int hashCode = NameArena.hash(name);
+		int slot = mix(hashCode) & mask;
+		int index;
+		while ((index = table[slot]) != EMPTY) {
+			if (hashCodes[index] == hashCode && arena.equals(refs[index], name)) {
+				refs[index] = EMPTY;
+				--size;
+				deleteSlot(slot);
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/** Backward-shift deletion, so that lookups never need tombstones. */
+	private void deleteSlot(int slot) {
+		int hole = slot;
+		int next = (slot + 1) & mask;
+		int index;
+		while ((index = table[next]) != EMPTY) {
+			int ideal = mix(hashCodes[index]) & mask;
+			// Move the entry into the hole if its ideal slot is not between the hole and its current slot
+			if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+				table[hole] = index;
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		table[hole] = EMPTY;
+	}
+
+	private void rehash() {
+		// Drop removed entries while we are at it
+		if (size != entryCount) {
+			int j = 0;
+			for (int i = 0; i < entryCount; i++) {
+				if (refs[i] != EMPTY) {
+					refs[j] = refs[i];
+					values[j] = values[i];
+					hashCodes[j] = hashCodes[i];
+					++j;
+				}
+			}
+			entryCount = j;
+		}
+		allocateTable(size * 2);
+		for (int i = 0; i < entryCount; i++) {
+			int slot = mix(hashCodes[i]) & mask;
+			while (table[slot] != EMPTY) slot = (slot + 1) & mask;
+			table[slot] = i;
+		}
+	}
+
+	private void allocateTable(int minCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(minCapacity, 8) * 2 - 1);
+		table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+		mask = capacity - 1;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -22,27 +22,65 @@ package sporemodder.updater;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * A registry file is a list which assigns an integer hash value to a string, and vice versa.
  */
 public class NameRegistry {
+	/**
+	 * Receives the hash-name pairs of a registry, see {@link NameRegistry#forEach(EntryConsumer)}.
+	 */
+	public interface EntryConsumer {
+		public void accept(int hash, String name) throws IOException;
+	}
+	
+	// Names are stored once, as UTF-8, and shared by both maps
+	protected final NameArena arena;
 	// ~ names are in lowercase
-	protected final Map<String, Integer> hashes = new LinkedHashMap<>();
-	protected final Map<Integer, String> names = new LinkedHashMap<>();
+	protected final NameIntMap hashes;
+	protected final IntNameMap names;
+	
+	public NameRegistry() {
+		this(new NameArena(), 16, 16);
+	}
+	
+	/**
+	 * Creates a registry that stores its names in the given arena, with enough capacity for the given number of entries.
+	 * @param arena
+	 * @param nameCount
+	 * @param hashCount
+	 */
+	protected NameRegistry(NameArena arena, int nameCount, int hashCount) {
+		this.arena = arena;
+		this.hashes = new NameIntMap(arena, hashCount);
+		this.names = new IntNameMap(arena, nameCount);
+	}
+	
+	/**
+	 * Creates a copy of another registry, that can be modified independently.
+	 * @param other
+	 */
+	public NameRegistry(NameRegistry other) {
+		this.arena = new NameArena(other.arena);
+		this.hashes = new NameIntMap(arena, other.hashes);
+		this.names = new IntNameMap(arena, other.names);
+	}
 	
 	public void clear() {
 		hashes.clear();
 		names.clear();
+		arena.clear();
 	}
 	
 	/**
 	 * Returns the name that is assigned to the given hash, or null if the hash is not assigned.
+	 * Names are stored as UTF-8, so every call decodes a new string; use {@link #hasName(int, String)} to compare
+	 * a name without allocating.
 	 * @param hash The hash whose equivalent name will be returned.
 	 * @return The equivalent name, or null.
 	 */
@@ -57,7 +95,19 @@ public class NameRegistry {
 	 * @return The equivalent hash, or null.
 	 */
 	public Integer getHash(String name) {
-		return hashes.get(name);
+		int index = hashes.indexOf(name);
+		return index == -1 ? null : hashes.valueAt(index);
+	}
+	
+	/**
+	 * Returns true if the given hash is assigned to exactly the given name. This is equivalent to
+	 * <code>name.equals(getName(hash))</code>, but it does not need to decode the stored name.
+	 * @param hash
+	 * @param name
+	 * @return
+	 */
+	public boolean hasName(int hash, String name) {
+		return names.containsEntry(hash, name);
 	}
 	
 	/**
@@ -66,24 +116,44 @@ public class NameRegistry {
 	 * @param hash
 	 */
 	public void add(String name, int hash) {
-		hashes.put(name, hash);
-		names.put(hash, name);
+		// Both maps share the same copy of the name
+		int index = hashes.put(name, hash);
+		names.put(hash, hashes.refAt(index));
+	}
+	
+	/**
+	 * Same as {@link #add(String, int)}, for a name encoded in UTF-8.
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @param hash
+	 */
+	protected void add(byte[] src, int offset, int length, int hash) {
+		int index = hashes.put(src, offset, length, hash);
+		names.put(hash, hashes.refAt(index));
+	}
+	
+	/**
+	 * Assigns a name, encoded in UTF-8, to the hash but not the other way around. This is what happens with
+	 * the entries that do not specify the hash in the registry file.
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @param hash
+	 */
+	protected void addName(byte[] src, int offset, int length, int hash) {
+		names.put(hash, arena.add(src, offset, length));
 	}
 	
 	/**
 	 * Calculates the 32-bit FNV hash used by Spore for the given string.
 	 * It is case-insensitive: the string is converted to lower-case before calculating the hash.
+	 * See {@link FnvHash}, which does not allocate and also hashes many names at once.
 	 * @param string The string whose hash will be calculated.
 	 * @return The equivalent hash.
 	 */
 	public static int fnvHash(String string) {
-		char[] lower = string.toLowerCase().toCharArray();
-        int rez = 0x811C9DC5;
-        for (int i = 0; i < lower.length; i++) {
-        	rez *= 0x1000193;
-        	rez ^= lower[i];
-        }
-        return rez;
+		return FnvHash.hash(string);
 	}
 	
 	/**
@@ -140,18 +210,29 @@ public class NameRegistry {
 			if (name.endsWith("~")) {
 				hashes.put(name.toLowerCase(), hash);
 			}
-			else {
-				hashes.put(name, hash);
-			}
-			hashes.put(name, hash);
-			names.put(hash, name);
+			add(name, hash);
 		}
 	}
 	
+	/**
+	 * Reads all the entries of a registry file, encoded in UTF-8. This uses a {@link RegistryCodec}, 
+	 * which does not create strings for every line.
+	 * @param file
+	 * @throws IOException
+	 */
 	public void read(File file) throws IOException {
-		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
-			read(in);
-		}
+		new RegistryCodec().read(file.toPath(), this);
+	}
+	
+	/**
+	 * Removes the lines of a registry file that have no effect, because later lines assign the same hashes and names.
+	 * See {@link RegistryCodec#compact(java.nio.file.Path)}.
+	 * @param file
+	 * @return How many lines and bytes were removed.
+	 * @throws IOException
+	 */
+	public static RegistryCodec.Compaction compact(File file) throws IOException {
+		return new RegistryCodec().compact(file.toPath());
 	}
 	
 	public void read(BufferedReader in) throws IOException {
@@ -174,23 +255,72 @@ public class NameRegistry {
 	}
 	
 	public void write(BufferedWriter output, boolean forceHashes) throws IOException {
-		for (Map.Entry<Integer, String> entry : names.entrySet()) {
-			String name = entry.getValue();
+		for (int i = 0, count = names.entryCount(); i < count; i++) {
+			if (!names.isLive(i)) continue;
+			String name = names.nameAt(i);
 			int hash = fnvHash(name);
-			if (forceHashes || hash != entry.getKey()) {
-				output.append(name + "\t0x" + Integer.toHexString(entry.getKey()));
+			if (forceHashes || hash != names.keyAt(i)) {
+				output.append(name + "\t0x" + Integer.toHexString(names.keyAt(i)));
 			} else {
 				output.append(name);
 			}
 			output.newLine();
 		}
 	}
+	
+	/**
+	 * Calls the consumer for every hash-name pair of this registry, in insertion order.
+	 * @param consumer
+	 * @throws IOException If the consumer throws it.
+	 */
+	public void forEach(EntryConsumer consumer) throws IOException {
+		for (int i = 0, count = names.entryCount(); i < count; i++) {
+			if (names.isLive(i)) {
+				consumer.accept(names.keyAt(i), names.nameAt(i));
+			}
+		}
+	}
 
 	public boolean isEmpty() {
-		return names.isEmpty() && hashes.isEmpty();
+		return names.size() == 0 && hashes.size() == 0;
 	}
 
+	/**
+	 * Returns all the names assigned to a hash, in insertion order. The collection is a read-only view
+	 * backed by the registry; names are decoded as they are iterated.
+	 * @return
+	 */
 	public Collection<String> getNames() {
-		return names.values();
+		return new AbstractCollection<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					int index = skip(0);
+					
+					private int skip(int i) {
+						while (i < names.entryCount() && !names.isLive(i)) i++;
+						return i;
+					}
+					
+					@Override
+					public boolean hasNext() {
+						return index < names.entryCount();
+					}
+					
+					@Override
+					public String next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						String name = names.nameAt(index);
+						index = skip(index + 1);
+						return name;
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return names.size();
+			}
+		};
 	}
 }
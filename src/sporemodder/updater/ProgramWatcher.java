@@ -0,0 +1,126 @@
+package sporemodder.updater;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Detects when SporeModder FX has exited, so the update can start as soon as its files are released.
+ * <li>If the PID of the program is known, it waits on {@link ProcessHandle#onExit()}.
+ * <li>Otherwise, it tries to lock the program jar (which fails while the program has it open, on Windows),
+ * retrying with exponential backoff.
+ */
+public class ProgramWatcher {
+	
+	/** First delay between attempts, in milliseconds. */
+	private static final long MIN_BACKOFF = 2;
+	/** Maximum delay between attempts to lock the jar, in milliseconds. */
+	private static final long MAX_BACKOFF = 250;
+	/** Maximum delay between checks of whether the process is alive, in milliseconds. */
+	private static final long MAX_PROCESS_BACKOFF = 50;
+	
+	/**
+	 * Waits until the process with the given PID has exited. If there is no such process, it has already exited.
+	 * <p>
+	 * {@link ProcessHandle#onExit()} is only signaled by the system on Windows or for child processes; for other processes
+	 * (like our parent, SporeModder FX) Java checks it every 300 ms or more. So we also check
+	 * {@link ProcessHandle#isAlive()} between waits, with exponential backoff.
+	 * @param pid
+	 * @param timeout Maximum time to wait, in milliseconds.
+	 * @return False if the process was still running after the timeout.
+	 * @throws InterruptedException
+	 */
+	public static boolean waitForProcess(long pid, long timeout) throws InterruptedException {
+		Optional<ProcessHandle> process = ProcessHandle.of(pid);
+		if (!process.isPresent()) {
+			return true;
+		}
+		CompletableFuture<ProcessHandle> exit = process.get().onExit();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		long backoff = MIN_BACKOFF;
+		while (process.get().isAlive()) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				return false;
+			}
+			try {
+				exit.get(Math.min(backoff, remaining), TimeUnit.MILLISECONDS);
+				return true;
+			} catch (TimeoutException e) {
+				backoff = Math.min(backoff * 2, MAX_PROCESS_BACKOFF);
+			} catch (ExecutionException e) {
+				// Cannot happen, onExit() is never completed exceptionally
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Waits until the given file can be opened for writing and locked. If the file does not exist, it is not in use.
+	 * @param file
+	 * @param timeout Maximum time to wait, in milliseconds.
+	 * @return False if the file could not be locked before the timeout.
+	 * @throws InterruptedException
+	 */
+	public static boolean waitForLock(File file, long timeout) throws InterruptedException {
+		Path path = file.toPath();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		long backoff = MIN_BACKOFF;
+		while (!tryLock(path)) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				return false;
+			}
+			Thread.sleep(Math.min(backoff, remaining));
+			backoff = Math.min(backoff * 2, MAX_BACKOFF);
+		}
+		return true;
+	}
+	
+	private static boolean tryLock(Path path) {
+		if (!Files.exists(path)) {
+			return true;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			FileLock lock = channel.tryLock();
+			if (lock == null) {
+				return false;
+			}
+			lock.release();
+			return true;
+		} catch (IOException | OverlappingFileLockException e) {
+			// On Windows, a jar that is being used by a program cannot be opened for writing
+			return false;
+		}
+	}
+	
+	/**
+	 * Waits until the program has exited: using its PID if it is known, or otherwise by locking the program jar.
+	 * @param pid The PID of the program, or -1 if it is not known.
+	 * @param programJar
+	 * @param timeout Maximum time to wait, in milliseconds.
+	 * @return False if the program was still running after the timeout.
+	 */
+	public static boolean waitForExit(long pid, File programJar, long timeout) {
+		try {
+			if (pid != -1) {
+				return waitForProcess(pid, timeout);
+			} else {
+				return waitForLock(programJar, timeout);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package sporemodder.updater;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The versions of the registry patches, so that an install only gets the entries released after its version.
+ * <p>
+ * The registries of the `resources` package (like <code>reg_file.txt</code>) are the base: all the entries released
+ * before the chain started. Every release since then adds its new entries into <code>registries/&lt;version&gt;/</code>,
+ * with the same file name as the base registry, and its version at the end of <code>registries/chain.txt</code>,
+ * one per line, from oldest to newest. A release that did not change a registry has no file for it.
+ * <p>
+ * After updating, the updater writes the newest version into the {@link #STAMP_FILE} of the install. The next update
+ * only adds the patches of later versions; if the install has no stamp, or a version that is not in the chain,
+ * it gets the base and all the patches.
+ */
+public class RegistryChain {
+
+	/** Folder of the patches, relative to the `resources` package. */
+	public static final String FOLDER = "registries";
+	/** List of versions, relative to the `resources` package. */
+	public static final String INDEX_FILE = FOLDER + "/chain.txt";
+	/** File with the version of the installed registries, relative to SMFX base folder. */
+	public static final String STAMP_FILE = Updater.INDEX_FOLDER + "/version.txt";
+
+	private final List<String> versions;
+
+	public RegistryChain(List<String> versions) {
+		this.versions = Collections.unmodifiableList(new ArrayList<>(versions));
+	}
+
+	/**
+	 * Reads the list of versions, ignoring empty lines. The stream is closed.
+	 * @param stream The index file, or null if there is none; then the chain is empty.
+	 * @return
+	 * @throws IOException
+	 */
+	public static RegistryChain read(InputStream stream) throws IOException {
+		List<String> versions = new ArrayList<>();
+		if (stream != null) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (!line.isEmpty()) versions.add(line);
+				}
+			}
+		}
+		return new RegistryChain(versions);
+	}
+
+	/** Returns all the versions, from oldest to newest. */
+	public List<String> getVersions() {
+		return versions;
+	}
+
+	/** Returns the newest version, or null if the chain is empty. */
+	public String getLatest() {
+		return versions.isEmpty() ? null : versions.get(versions.size() - 1);
+	}
+
+	/**
+	 * Returns the path of the patch of a registry for a version, relative to the `resources` package.
+	 * @param version
+	 * @param registry Path to the base registry, relative to the `resources` package.
+	 * @return
+	 */
+	public static String getPatchPath(String version, String registry) {
+		return FOLDER + "/" + version + "/" + registry;
+	}
+
+	/**
+	 * Returns the registries that must be added, in order, to an install of the given version.
+	 * @param registry Path to the base registry, relative to the `resources` package.
+	 * @param installedVersion The version in the stamp of the install, or null if it has none.
+	 * @return The base registry (unless the installed version is in the chain) followed by the patches of newer versions,
+	 * empty if the install is up to date. Versions that did not change the registry have no patch, so paths that do not
+	 * exist must be ignored.
+	 */
+	public List<String> getPatches(String registry, String installedVersion) {
+		int installed = installedVersion == null ? -1 : versions.indexOf(installedVersion);
+		List<String> paths = new ArrayList<>();
+		if (installed == -1) {
+			paths.add(registry);
+		}
+		for (int i = installed + 1; i < versions.size(); i++) {
+			paths.add(getPatchPath(versions.get(i), registry));
+		}
+		return paths;
+	}
+
+	/**
+	 * Returns the version in the stamp of an install, or null if it has none.
+	 * @param folder SMFX base folder.
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readStamp(File folder) throws IOException {
+		Path path = new File(folder, STAMP_FILE).toPath();
+		if (!Files.exists(path)) return null;
+		String version = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+		return version.isEmpty() ? null : version;
+	}
+
+	/**
+	 * Writes the version into the stamp of an install. It is written into a new file that replaces the old one.
+	 * @param folder SMFX base folder.
+	 * @param version
+	 * @throws IOException
+	 */
+	public static void writeStamp(File folder, String version) throws IOException {
+		Path path = new File(folder, STAMP_FILE).toPath();
+		Files.createDirectories(path.getParent());
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(tempPath, (version + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Adds a version at the end of the chain of a `resources` folder, if it is not the last one already, and writes
+	 * it into the stamp of the given installs (like the clean install included in the release).
+	 * Arguments: the `resources` folder, the version, and the folders to stamp.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: RegistryChain <resources folder> <version> [<SporeModder FX folder>...]");
+			System.exit(2);
+		}
+		Path indexPath = Paths.get(args[0]).resolve(INDEX_FILE);
+		String version = args[1];
+		RegistryChain chain = read(Files.exists(indexPath) ? Files.newInputStream(indexPath) : null);
+		if (!version.equals(chain.getLatest())) {
+			if (chain.getVersions().contains(version)) {
+				throw new IllegalArgumentException("Version " + version + " is already in the chain, but it is not the last one");
+			}
+			Files.createDirectories(indexPath.getParent());
+			Files.write(indexPath, (version + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+		for (int i = 2; i < args.length; i++) {
+			writeStamp(new File(args[i]), version);
+		}
+		System.out.println(String.format("%s: %d versions, last %s", indexPath, chain.getVersions().size() + (version.equals(chain.getLatest()) ? 0 : 1), version));
+	}
+}
@@ -0,0 +1,852 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads and writes registry files at the byte level, without building intermediate strings.
+ * Lines are scanned directly in a reusable buffer and names are copied as UTF-8 into the {@link NameArena}
+ * of the registry; output is written through another reusable buffer.
+ * <p>
+ * The result is the same as {@link NameRegistry#read(java.io.BufferedReader)} and
+ * {@link NameRegistry#write(java.io.BufferedWriter, boolean)}. Lines that contain non-ASCII characters, or numbers in
+ * unusual formats, are rare; they are decoded into a string and go through the same code as the text-based methods.
+ * <p>
+ * A codec keeps state between calls, so it must not be used by more than one thread at a time.
+ */
+public class RegistryCodec {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NEW_LINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+	/** Lowercasing 'I' depends on the default locale (for example, it is not 'i' in Turkish). */
+	private static final boolean ASCII_LOWERCASE = "I".toLowerCase().equals("i");
+
+	private byte[] input = new byte[BUFFER_SIZE];
+	private ByteBuffer inputBuffer = ByteBuffer.wrap(input);
+	private byte[] scratch = new byte[256];
+
+	// The last line scanned by scanLine() and the entry parsed from it
+	private int lineStart;
+	private int lineEnd;
+	private int lineTab;
+	private boolean lineAscii;
+	private byte[] entryBytes;
+	private int entryStart;
+	private int entryLength;
+	private int entryHash;
+	private boolean entryHasHash;
+	// Whether replaceEntries() has written something different from the original file
+	private boolean replacedChanges;
+
+	private final byte[] output = new byte[BUFFER_SIZE];
+	private final ByteBuffer outputBuffer = ByteBuffer.wrap(output);
+	private int outputPosition;
+	private WritableByteChannel outputChannel;
+
+	// Totals since the codec was created; an operation is measured by their difference before and after it
+	private long readBytes;
+	private long writtenBytes;
+	private long parsedEntries;
+	private long writtenEntries;
+
+	/**
+	 * Reads all the entries of a registry file into the given registry.
+	 * @param path
+	 * @param registry
+	 * @throws IOException
+	 */
+	public void read(Path path, NameRegistry registry) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			read(channel, registry);
+		}
+	}
+
+	/**
+	 * Reads all the entries of a registry, encoded in UTF-8, into the given registry. The stream is not closed.
+	 * @param stream
+	 * @param registry
+	 * @throws IOException
+	 */
+	public void read(InputStream stream, NameRegistry registry) throws IOException {
+		read(Channels.newChannel(stream), registry);
+	}
+
+	/**
+	 * Reads all the entries of a registry, encoded in UTF-8, into the given registry. The channel is not closed.
+	 * Lines can end with '\n', '\r' or "\r\n", like in {@link java.io.BufferedReader#readLine()}.
+	 * @param channel
+	 * @param registry
+	 * @throws IOException
+	 */
+	public void read(ReadableByteChannel channel, NameRegistry registry) throws IOException {
+		int limit = 0;
+		int position = 0;
+		int lineStart = 0;
+		boolean skipLF = false;
+		boolean eof = false;
+
+		while (true) {
+			while (position < limit) {
+				byte c = input[position];
+				if (skipLF) {
+					skipLF = false;
+					if (c == '\n') {
+						lineStart = ++position;
+						continue;
+					}
+				}
+				if (c == '\n' || c == '\r') {
+					parseLine(input, lineStart, position, registry);
+					skipLF = c == '\r';
+					lineStart = ++position;
+				} else {
+					++position;
+				}
+			}
+
+			if (eof) {
+				if (lineStart < limit) {
+					parseLine(input, lineStart, limit, registry);
+				}
+				break;
+			}
+
+			// Keep the unfinished line at the start of the buffer
+			if (lineStart != 0) {
+				System.arraycopy(input, lineStart, input, 0, limit - lineStart);
+				limit -= lineStart;
+				position -= lineStart;
+				lineStart = 0;
+			}
+			if (limit == input.length) {
+				input = Arrays.copyOf(input, input.length * 2);
+				inputBuffer = ByteBuffer.wrap(input);
+			}
+
+			inputBuffer.limit(input.length).position(limit);
+			int count = channel.read(inputBuffer);
+			if (count == -1) {
+				eof = true;
+			} else {
+				limit += count;
+				readBytes += count;
+			}
+		}
+	}
+
+	/**
+	 * Processes a single line, the equivalent of the string operations in {@link NameRegistry#read(java.io.BufferedReader)}
+	 * and {@link NameRegistry#parseEntry(String)}.
+	 */
+	private void parseLine(byte[] b, int start, int end, NameRegistry registry) {
+		if (!scanLine(b, start, end)) return;
+		++parsedEntries;
+
+		if (!lineAscii || !ASCII_LOWERCASE) {
+			registry.parseEntry(new String(b, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+			return;
+		}
+
+		parseAsciiEntry(b);
+		if (!entryHasHash) {
+			registry.addName(b, entryStart, entryLength, entryHash);
+		}
+		else {
+			if (b[entryStart + entryLength - 1] == '~') {
+				if (scratch.length < entryLength) {
+					scratch = new byte[Math.max(entryLength, scratch.length * 2)];
+				}
+				for (int i = 0; i < entryLength; i++) {
+					scratch[i] = toLowerCase(b[entryStart + i]);
+				}
+				registry.hashes.put(scratch, 0, entryLength, entryHash);
+			}
+			registry.add(b, entryStart, entryLength, entryHash);
+		}
+	}
+
+	/**
+	 * Removes the comment and surrounding whitespace of a line, setting <code>lineStart</code>, <code>lineEnd</code>,
+	 * <code>lineTab</code> and <code>lineAscii</code>. Returns false if the line has no entry.
+	 */
+	private boolean scanLine(byte[] b, int start, int end) {
+		// Remove comments
+		for (int i = start; i < end - 1; i++) {
+			if (b[i] == '/' && b[i + 1] == '/') {
+				end = i;
+				break;
+			}
+		}
+
+		// Same as trim(): UTF-8 continuation bytes are negative, so they are never removed
+		while (start < end && b[start] >= 0 && b[start] <= ' ') ++start;
+		while (end > start && b[end - 1] >= 0 && b[end - 1] <= ' ') --end;
+
+		if (start == end || b[start] == '#') return false;
+
+		int tab = -1;
+		boolean ascii = true;
+		for (int i = start; i < end; i++) {
+			if (b[i] < 0) {
+				ascii = false;
+				break;
+			}
+			else if (b[i] == '\t' && tab == -1) {
+				tab = i;
+			}
+		}
+		lineStart = start;
+		lineEnd = end;
+		lineTab = tab;
+		lineAscii = ascii;
+		return true;
+	}
+
+	/**
+	 * Parses the name and hash of an ASCII line that was scanned by {@link #scanLine(byte[], int, int)}, setting
+	 * <code>entryStart</code>, <code>entryLength</code>, <code>entryHash</code> and <code>entryHasHash</code>.
+	 */
+	private void parseAsciiEntry(byte[] b) {
+		int nameEnd = lineTab == -1 ? lineEnd : lineTab;
+		while (nameEnd > lineStart && b[nameEnd - 1] <= ' ') --nameEnd;
+		entryStart = lineStart;
+		entryLength = nameEnd - lineStart;
+
+		if (lineTab == -1) {
+			entryHasHash = false;
+			entryHash = fnvHash(b, entryStart, entryLength);
+		}
+		else {
+			// Only the text until the next tab is used, like split("\t")[1].trim()
+			int hashStart = lineTab + 1;
+			int hashEnd = hashStart;
+			while (hashEnd < lineEnd && b[hashEnd] != '\t') ++hashEnd;
+			while (hashStart < hashEnd && b[hashStart] <= ' ') ++hashStart;
+			while (hashEnd > hashStart && b[hashEnd - 1] <= ' ') --hashEnd;
+
+			entryHasHash = true;
+			entryHash = int32(b, hashStart, hashEnd);
+		}
+	}
+
+	/**
+	 * Parses the name and hash of a line, like {@link NameRegistry#parseEntry(String)} but without adding it anywhere.
+	 * The name is left in <code>entryBytes</code>, from <code>entryStart</code> to <code>entryLength</code>.
+	 * Returns false if the line has no entry.
+	 */
+	private boolean parseEntry(byte[] b, int start, int end) {
+		if (!scanLine(b, start, end)) return false;
+
+		if (!lineAscii || !ASCII_LOWERCASE) {
+			String[] strings = new String(b, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8).split("\t");
+			String name = strings[0].trim();
+			entryBytes = name.getBytes(StandardCharsets.UTF_8);
+			entryStart = 0;
+			entryLength = entryBytes.length;
+			entryHasHash = strings.length >= 2;
+			entryHash = entryHasHash ? NameRegistry.int32(strings[1].trim()) : NameRegistry.fnvHash(name);
+		}
+		else {
+			entryBytes = b;
+			parseAsciiEntry(b);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces entries of a registry file, reading it line by line, so that only the new entries are kept in memory:
+	 * <li>The first line with the hash of a new entry is replaced by that entry; other lines with that hash are removed.
+	 * <li>Lines with the name of a new entry, but a different hash, are removed.
+	 * <li>New entries whose hash was not in the file are added at the end.
+	 * <li>All other lines, including comments and empty lines, are kept unchanged.
+	 * <p>
+	 * New entries are always written with their hash. The result is written into a temporary file in the same folder,
+	 * which then replaces the registry file; if anything fails, or if the result is the same as the file, the registry
+	 * file is not modified.
+	 * @param path
+	 * @param entries The new entries.
+	 * @return True if the registry file was modified.
+	 * @throws IOException
+	 */
+	public boolean replaceEntries(Path path, NameRegistry entries) throws IOException {
+		IntNameMap newNames = entries.names;
+		NameArena arena = entries.arena;
+		// The hash of every new name, to find the lines that use that name for another hash
+		NameIntMap newHashes = new NameIntMap(arena, newNames.size());
+		for (int i = 0; i < newNames.entryCount(); i++) {
+			if (newNames.isLive(i)) newHashes.put(newNames.refAt(i), newNames.keyAt(i));
+		}
+		boolean[] written = new boolean[newNames.entryCount()];
+		byte[] lineSeparator = null;
+		replacedChanges = false;
+
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			startOutput(out);
+
+			int limit = 0;
+			int position = 0;
+			int lineStart = 0;
+			boolean eof = false;
+			boolean lastLineEnded = true;
+
+			while (true) {
+				while (position < limit) {
+					byte c = input[position];
+					if (c != '\n' && c != '\r') {
+						++position;
+						continue;
+					}
+					int lineEnd = position;
+					if (c == '\r' && position + 1 == limit && !eof) {
+						// Wait until we know whether it is "\r\n"
+						break;
+					}
+					position += c == '\r' && position + 1 < limit && input[position + 1] == '\n' ? 2 : 1;
+					if (lineSeparator == null) {
+						lineSeparator = Arrays.copyOfRange(input, lineEnd, position);
+					}
+					replaceLine(lineStart, lineEnd, position, newNames, newHashes, written);
+					lineStart = position;
+				}
+
+				if (eof) {
+					if (lineStart < limit) {
+						replaceLine(lineStart, limit, limit, newNames, newHashes, written);
+						lastLineEnded = false;
+					}
+					break;
+				}
+
+				// Keep the unfinished line at the start of the buffer
+				if (lineStart != 0) {
+					System.arraycopy(input, lineStart, input, 0, limit - lineStart);
+					limit -= lineStart;
+					position -= lineStart;
+					lineStart = 0;
+				}
+				if (limit == input.length) {
+					input = Arrays.copyOf(input, input.length * 2);
+					inputBuffer = ByteBuffer.wrap(input);
+				}
+
+				inputBuffer.limit(input.length).position(limit);
+				int count = in.read(inputBuffer);
+				if (count == -1) {
+					eof = true;
+				} else {
+					limit += count;
+					readBytes += count;
+				}
+			}
+
+			if (lineSeparator == null) {
+				lineSeparator = NEW_LINE;
+			}
+			for (int i = 0; i < written.length; i++) {
+				if (!newNames.isLive(i) || written[i]) continue;
+				replacedChanges = true;
+				if (!lastLineEnded) {
+					writeBytes(lineSeparator, 0, lineSeparator.length);
+					lastLineEnded = true;
+				}
+				writeEntry(arena, newNames.refAt(i), newNames.keyAt(i), true);
+				writeBytes(lineSeparator, 0, lineSeparator.length);
+			}
+			flush();
+		}
+		catch (IOException | RuntimeException e) {
+			outputChannel = null;
+			Files.deleteIfExists(tempPath);
+			throw e;
+		}
+
+		// Keep the file, and its modification time, if every line was already up to date
+		if (!replacedChanges) {
+			Files.delete(tempPath);
+			return false;
+		}
+		try {
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return true;
+	}
+
+	/**
+	 * The result of {@link RegistryCodec#compact(Path)}.
+	 */
+	public static class Compaction {
+		/** How many lines were removed. */
+		public final int removedLines;
+		/** How many bytes smaller the file is. */
+		public final long savedBytes;
+
+		public Compaction(int removedLines, long savedBytes) {
+			this.removedLines = removedLines;
+			this.savedBytes = savedBytes;
+		}
+	}
+
+	/**
+	 * Rewrites a registry file keeping only the lines that have an effect: for every hash, the last line that assigns it
+	 * a name, and for every name, the last line that assigns it a hash (see {@link NameRegistry#parseEntry(String)}).
+	 * Lines superseded by later lines and empty lines are removed; comments are kept. The remaining lines keep their order
+	 * and bytes, so {@link NameRegistry#getName(int)} and {@link NameRegistry#getHash(String)} return the same as before;
+	 * only the iteration order of the registry can change.
+	 * <p>
+	 * The file is read into memory. The result is written into a temporary file in the same folder, which then
+	 * replaces the registry file; if no line is removed, the file is not modified.
+	 * @param path
+	 * @return How many lines and bytes were removed.
+	 * @throws IOException
+	 */
+	public Compaction compact(Path path) throws IOException {
+		byte[] data = Files.readAllBytes(path);
+		readBytes += data.length;
+		int[] lines = splitLines(data);
+		int lineCount = lines.length / 3;
+		
+		// Going backwards, a line has an effect if it assigns something that no later line assigns
+		NameRegistry assigned = new NameRegistry();
+		boolean[] keep = new boolean[lineCount];
+		int removedLines = 0;
+		long savedBytes = 0;
+		for (int i = lineCount - 1; i >= 0; i--) {
+			int lineStart = lines[3 * i];
+			int lineEnd = lines[3 * i + 1];
+			if (!parseEntry(data, lineStart, lineEnd)) {
+				keep[i] = !isBlank(data, lineStart, lineEnd);
+			}
+			else {
+				keep[i] = !assigned.names.containsKey(entryHash) || (entryHasHash && 
+						(assigned.hashes.indexOf(entryBytes, entryStart, entryLength) == -1 || !hasLowerCaseName(assigned.hashes)));
+				parseLine(data, lineStart, lineEnd, assigned);
+			}
+			if (!keep[i]) {
+				++removedLines;
+				savedBytes += lines[3 * i + 2] - lineStart;
+			}
+		}
+		if (removedLines == 0) {
+			return new Compaction(0, 0);
+		}
+		
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			startOutput(out);
+			for (int i = 0; i < lineCount; i++) {
+				if (keep[i]) {
+					writeBytes(data, lines[3 * i], lines[3 * i + 2] - lines[3 * i]);
+				}
+			}
+			flush();
+		}
+		catch (IOException | RuntimeException e) {
+			outputChannel = null;
+			Files.deleteIfExists(tempPath);
+			throw e;
+		}
+
+		try {
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return new Compaction(removedLines, savedBytes);
+	}
+
+	/**
+	 * Splits the contents of a registry file into lines, ended by \n, \r or \r\n. For every line, three values
+	 * are returned: its start, its end (without the line break), and the start of the next line.
+	 * @param data
+	 * @return
+	 */
+	public static int[] splitLines(byte[] data) {
+		int[] lines = new int[3 * Math.max(16, data.length / 16)];
+		int lineCount = 0;
+		int start = 0;
+		for (int i = 0; i <= data.length; i++) {
+			if (i == data.length ? start < i : (data[i] == '\n' || data[i] == '\r')) {
+				int next = i;
+				if (i < data.length) {
+					next += data[i] == '\r' && i + 1 < data.length && data[i + 1] == '\n' ? 2 : 1;
+				}
+				if (lines.length < 3 * (lineCount + 1)) {
+					lines = Arrays.copyOf(lines, lines.length * 2);
+				}
+				lines[3 * lineCount] = start;
+				lines[3 * lineCount + 1] = i;
+				lines[3 * lineCount + 2] = next;
+				++lineCount;
+				i = next - 1;
+				start = next;
+			}
+		}
+		return Arrays.copyOf(lines, 3 * lineCount);
+	}
+	
+	/**
+	 * Receives the entries of a registry file, see {@link RegistryCodec#parseLines(byte[], int[], int, int, EntryVisitor)}.
+	 */
+	public interface EntryVisitor {
+		/**
+		 * @param line Index of the line.
+		 * @param b Array that contains the name, encoded in UTF-8.
+		 * @param start
+		 * @param length
+		 * @param hash The hash of the line, or the FNV hash of the name if the line has no hash.
+		 * @param hasHash
+		 */
+		public void visit(int line, byte[] b, int start, int length, int hash, boolean hasHash);
+		
+		/**
+		 * Called for lines whose hash cannot be parsed; reading the registry would throw an exception.
+		 * @param line Index of the line.
+		 * @param e
+		 */
+		public void invalid(int line, NumberFormatException e);
+	}
+	
+	/**
+	 * Parses a range of lines returned by {@link #splitLines(byte[])}, without adding them to any registry.
+	 * The name passed to the visitor is only valid during the call.
+	 * @param data
+	 * @param lines
+	 * @param first Index of the first line.
+	 * @param last Index after the last line.
+	 * @param visitor
+	 */
+	public void parseLines(byte[] data, int[] lines, int first, int last, EntryVisitor visitor) {
+		for (int i = first; i < last; i++) {
+			try {
+				if (parseEntry(data, lines[3 * i], lines[3 * i + 1])) {
+					++parsedEntries;
+					visitor.visit(i, entryBytes, entryStart, entryLength, entryHash, entryHasHash);
+				}
+			} catch (NumberFormatException e) {
+				visitor.invalid(i, e);
+			}
+		}
+	}
+	
+	/**
+	 * For the entry parsed by {@link #parseEntry(byte[], int, int)}, returns false if it is a name ending with ~
+	 * whose lowercase version is not in the map; these names also assign their hash to the lowercase name.
+	 */
+	private boolean hasLowerCaseName(NameIntMap hashes) {
+		if (entryLength == 0 || entryBytes[entryStart + entryLength - 1] != '~') {
+			return true;
+		}
+		if (lineAscii && ASCII_LOWERCASE) {
+			if (scratch.length < entryLength) {
+				scratch = new byte[Math.max(entryLength, scratch.length * 2)];
+			}
+			for (int i = 0; i < entryLength; i++) {
+				scratch[i] = toLowerCase(entryBytes[entryStart + i]);
+			}
+			return hashes.indexOf(scratch, 0, entryLength) != -1;
+		}
+		return hashes.indexOf(new String(entryBytes, entryStart, entryLength, StandardCharsets.UTF_8).toLowerCase()) != -1;
+	}
+
+	private static boolean isBlank(byte[] b, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (b[i] < 0 || b[i] > ' ') return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a line of the input buffer (the line is from <code>start</code> to <code>end</code>, followed by its
+	 * separator until <code>next</code>), replacing it or removing it if it collides with a new entry.
+	 */
+	private void replaceLine(int start, int end, int next, IntNameMap newNames, NameIntMap newHashes, boolean[] written) throws IOException {
+		if (parseEntry(input, start, end)) {
+			++parsedEntries;
+			int index = newNames.indexOf(entryHash);
+			if (index != -1) {
+				if (!written[index]) {
+					written[index] = true;
+					writeEntry(newNames.getArena(), newNames.refAt(index), entryHash, true);
+					writeBytes(input, end, next - end);
+					replacedChanges |= !isWrittenEntry(input, start, end, newNames.getArena(), newNames.refAt(index), entryHash);
+				} else {
+					replacedChanges = true;
+				}
+				return;
+			}
+			int nameIndex = newHashes.indexOf(entryBytes, entryStart, entryLength);
+			if (nameIndex != -1) {
+				replacedChanges = true;
+				return;
+			}
+		}
+		writeBytes(input, start, next - start);
+	}
+
+	/**
+	 * Returns true if the line is exactly what <code>writeEntry(arena, ref, hash, true)</code> writes.
+	 */
+	private static boolean isWrittenEntry(byte[] b, int start, int end, NameArena arena, int ref, int hash) {
+		int nameStart = arena.start(ref);
+		int nameLength = arena.length(ref);
+		int digits = Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(hash) + 3) / 4);
+		if (end - start != nameLength + 3 + digits) {
+			return false;
+		}
+		byte[] names = arena.array();
+		for (int i = 0; i < nameLength; i++) {
+			if (b[start + i] != names[nameStart + i]) return false;
+		}
+		int pos = start + nameLength;
+		if (b[pos++] != '\t' || b[pos++] != '0' || b[pos++] != 'x') {
+			return false;
+		}
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			if (b[pos++] != HEX_DIGITS[(hash >>> shift) & 0xF]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Same as {@link NameRegistry#int32(String)} for an ASCII byte range. The common formats are parsed directly,
+	 * anything else (including invalid numbers, which throw an exception) is delegated to that method.
+	 */
+	private static int int32(byte[] b, int start, int end) {
+		if (start == end) {
+			return 0;
+		}
+
+		if (end - start > 2 && b[start] == '0' && b[start + 1] == 'x') {
+			if (end - start <= 10) {
+				int value = parseHex(b, start + 2, end);
+				if (value != -1 || isHexMinusOne(b, start + 2, end)) return value;
+			}
+		}
+		else if (b[start] == '#') {
+			if (end - start > 1 && end - start <= 9) {
+				int value = parseHex(b, start + 1, end);
+				if (value != -1 || isHexMinusOne(b, start + 1, end)) return value;
+			}
+		}
+		else if (b[end - 1] == 'b') {
+			if (end - start > 1 && end - start <= 33) {
+				int value = 0;
+				int i = start;
+				for (; i < end - 1; i++) {
+					if (b[i] != '0' && b[i] != '1') break;
+					value = (value << 1) | (b[i] - '0');
+				}
+				if (i == end - 1) return value;
+			}
+		}
+		else {
+			boolean negative = b[start] == '-';
+			int i = negative ? start + 1 : start;
+			// Nine digits never overflow
+			if (end - i > 0 && end - i <= 9) {
+				int value = 0;
+				for (; i < end; i++) {
+					if (b[i] < '0' || b[i] > '9') break;
+					value = value * 10 + (b[i] - '0');
+				}
+				if (i == end) return negative ? -value : value;
+			}
+		}
+
+		return NameRegistry.int32(new String(b, start, end - start, StandardCharsets.US_ASCII));
+	}
+
+	/** Parses up to 8 hexadecimal digits, returns -1 if there are invalid characters. */
+	private static int parseHex(byte[] b, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(b[i], 16);
+			if (digit == -1) return -1;
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	private static boolean isHexMinusOne(byte[] b, int start, int end) {
+		if (end - start != 8) return false;
+		for (int i = start; i < end; i++) {
+			if (b[i] != 'f' && b[i] != 'F') return false;
+		}
+		return true;
+	}
+
+	private static byte toLowerCase(byte c) {
+		return c >= 'A' && c <= 'Z' ? (byte) (c + ('a' - 'A')) : c;
+	}
+
+	/**
+	 * Same as {@link NameRegistry#fnvHash(String)} for a name encoded in UTF-8, see {@link FnvHash#hash(byte[], int, int)}.
+	 * @param b
+	 * @param start
+	 * @param length
+	 * @return
+	 */
+	public static int fnvHash(byte[] b, int start, int length) {
+		return FnvHash.hash(b, start, length);
+	}
+
+	/**
+	 * Writes all the entries of the registry into a file, replacing it. The output is the same as
+	 * {@link NameRegistry#write(java.io.BufferedWriter, boolean)}.
+	 * @param registry
+	 * @param path
+	 * @param forceHashes If true, the hash is written even if it is the hash of the name.
+	 * @throws IOException
+	 */
+	public void write(NameRegistry registry, Path path, boolean forceHashes) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(registry, channel, forceHashes);
+		}
+	}
+
+	/**
+	 * Writes all the entries of the registry into the channel, which is not closed. The output is the same as
+	 * {@link NameRegistry#write(java.io.BufferedWriter, boolean)}.
+	 * @param registry
+	 * @param channel
+	 * @param forceHashes If true, the hash is written even if it is the hash of the name.
+	 * @throws IOException
+	 */
+	public void write(NameRegistry registry, WritableByteChannel channel, boolean forceHashes) throws IOException {
+		IntNameMap names = registry.names;
+		startOutput(channel);
+		for (int i = 0, count = names.entryCount(); i < count; i++) {
+			if (names.isLive(i)) {
+				writeEntry(registry.arena, names.refAt(i), names.keyAt(i), forceHashes);
+				newLine();
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Starts writing into the given channel, using {@link #writeEntry(NameArena, int, int, boolean)} and {@link #newLine()}.
+	 * Nothing is written until {@link #flush()} is called or the buffer is full.
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void startOutput(WritableByteChannel channel) throws IOException {
+		if (outputChannel != null && outputChannel != channel) {
+			flush();
+		}
+		outputChannel = channel;
+		outputPosition = 0;
+	}
+
+	/**
+	 * Writes a registry entry (without line separator): the name, followed by a tab and the hexadecimal hash
+	 * if <code>forceHash</code> is true or the hash is not the hash of the name.
+	 * @param arena
+	 * @param ref
+	 * @param hash
+	 * @param forceHash
+	 * @throws IOException
+	 */
+	public void writeEntry(NameArena arena, int ref, int hash, boolean forceHash) throws IOException {
+		int start = arena.start(ref);
+		int length = arena.length(ref);
+		++writtenEntries;
+		writeBytes(arena.array(), start, length);
+		if (forceHash || fnvHash(arena.array(), start, length) != hash) {
+			writeHash(hash);
+		}
+	}
+
+	/**
+	 * Writes the platform line separator, like {@link java.io.BufferedWriter#newLine()}.
+	 * @throws IOException
+	 */
+	public void newLine() throws IOException {
+		writeBytes(NEW_LINE, 0, NEW_LINE.length);
+	}
+
+	/** Writes "\t0x" followed by the hash in lowercase hexadecimal, without leading zeros, like Integer.toHexString(). */
+	private void writeHash(int hash) throws IOException {
+		if (output.length - outputPosition < 11) {
+			flushBuffer();
+		}
+		output[outputPosition++] = '\t';
+		output[outputPosition++] = '0';
+		output[outputPosition++] = 'x';
+		int digits = Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(hash) + 3) / 4);
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			output[outputPosition++] = HEX_DIGITS[(hash >>> shift) & 0xF];
+		}
+	}
+
+	private void writeBytes(byte[] src, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (outputPosition == output.length) {
+				flushBuffer();
+			}
+			int count = Math.min(length, output.length - outputPosition);
+			System.arraycopy(src, offset, output, outputPosition, count);
+			outputPosition += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		outputBuffer.limit(outputPosition).position(0);
+		while (outputBuffer.hasRemaining()) {
+			writtenBytes += outputChannel.write(outputBuffer);
+		}
+		outputPosition = 0;
+	}
+
+	/** Returns how many bytes the codec has read, from registry files and streams. */
+	public long getReadBytes() {
+		return readBytes;
+	}
+
+	/** Returns how many bytes the codec has written. */
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/** Returns how many lines with an entry the codec has parsed. */
+	public long getParsedEntries() {
+		return parsedEntries;
+	}
+
+	/** Returns how many entries the codec has written, see {@link #writeEntry(NameArena, int, int, boolean)}. */
+	public long getWrittenEntries() {
+		return writtenEntries;
+	}
+
+	/**
+	 * Writes everything that is still in the buffer into the output channel. The channel is not closed.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (outputChannel != null) {
+			flushBuffer();
+			outputChannel = null;
+		}
+	}
+}
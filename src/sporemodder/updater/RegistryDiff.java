@@ -0,0 +1,115 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compares two versions of a registry, to get the entries that must be added to the installed registries when updating.
+ * It replaces comparing the registry files line by line: entries are compared by their hash and name, so lines that
+ * were only moved, reformatted or repeated are not considered changes.
+ * <p>
+ * It is used when releasing a new version, to add the changes of the SporeModder FX registries since the last release
+ * into the registries of the `resources` package (see <code>collect_reg_changes.sh</code>).
+ */
+public class RegistryDiff {
+
+	/**
+	 * Returns the entries of the new registry that are not in the old one: hashes that were added, or that are now
+	 * assigned to another name. Entries that are already in any of the excluded registries are not returned either.
+	 * Entries are returned in the order of the new registry.
+	 * @param older
+	 * @param newer
+	 * @param excluded Registries with entries that have already been released, like the current patch registry.
+	 * @return
+	 */
+	public static NameRegistry diff(NameRegistry older, NameRegistry newer, NameRegistry ... excluded) {
+		NameRegistry changes = new NameRegistry();
+		IntNameMap names = newer.names;
+		NameArena arena = newer.arena;
+		byte[] bytes = arena.array();
+		for (int i = 0, count = names.entryCount(); i < count; i++) {
+			if (!names.isLive(i)) continue;
+			int hash = names.keyAt(i);
+			int ref = names.refAt(i);
+			if (older.names.containsEntry(hash, arena, ref)) continue;
+
+			boolean released = false;
+			for (NameRegistry registry : excluded) {
+				if (registry.names.containsEntry(hash, arena, ref)) {
+					released = true;
+					break;
+				}
+			}
+			if (!released) {
+				changes.add(bytes, arena.start(ref), arena.length(ref), hash);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Adds the entries at the end of a registry file, after an empty line. If the file does not exist, it is created.
+	 * Names ending with ~ are always written with their hash, like when updating.
+	 * @param codec
+	 * @param entries
+	 * @param path
+	 * @throws IOException
+	 */
+	public static void append(RegistryCodec codec, NameRegistry entries, Path path) throws IOException {
+		if (entries.isEmpty()) return;
+		boolean existed = Files.exists(path) && Files.size(path) != 0;
+		try (FileChannel output = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			codec.startOutput(output);
+			if (existed) {
+				codec.newLine();
+			}
+			IntNameMap names = entries.names;
+			for (int i = 0, count = names.entryCount(); i < count; i++) {
+				if (!names.isLive(i)) continue;
+				int ref = names.refAt(i);
+				codec.writeEntry(entries.arena, ref, names.keyAt(i), entries.arena.endsWith(ref, '~'));
+				codec.newLine();
+			}
+			codec.flush();
+		}
+	}
+
+	/**
+	 * Adds the changes between two versions of a registry into a patch registry, skipping the ones it already has.
+	 * Arguments: the old registry, the new registry, the patch registry, and optionally the registries released before
+	 * the patch, from oldest to newest (see {@link RegistryChain}); entries they already have are skipped too.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: RegistryDiff <old registry> <new registry> <patch registry> [<released registry>...]");
+			System.exit(2);
+		}
+		RegistryCodec codec = new RegistryCodec();
+		NameRegistry older = new NameRegistry();
+		codec.read(Paths.get(args[0]), older);
+		NameRegistry newer = new NameRegistry();
+		codec.read(Paths.get(args[1]), newer);
+		// Read in order into a single registry, so an entry only counts as released if no later registry replaced it
+		NameRegistry released = new NameRegistry();
+		for (int i = 3; i < args.length; i++) {
+			codec.read(Paths.get(args[i]), released);
+		}
+		Path patchPath = Paths.get(args[2]);
+		if (Files.exists(patchPath)) {
+			codec.read(patchPath, released);
+		}
+
+		NameRegistry changes = diff(older, newer, released);
+		if (!changes.isEmpty()) {
+			Files.createDirectories(patchPath.toAbsolutePath().getParent());
+		}
+		append(codec, changes, patchPath);
+		System.out.println(String.format("%s: %d new entries", patchPath, changes.names.size()));
+	}
+}
@@ -0,0 +1,465 @@
+package sporemodder.updater;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A precompiled, binary form of a {@link NameRegistry} that can be used without parsing the registry text.
+ * Snapshots are memory-mapped (or wrapped, for resources inside the jar) and answer {@link #getName(int)} and
+ * {@link #getHash(String)} with a binary search; they can also be turned back into a registry with {@link #toRegistry()}.
+ * <p>
+ * The text file is always the source of truth: a snapshot stores the length, modification time and CRC32 of the text
+ * it was built from, and it must be rebuilt when it does not match anymore.
+ * <p>
+ * The format is (big-endian):
+ * <li>Header: magic, version, source length, source modification time, source CRC32, name count, hash count, pool size.
+ * <li>Names table: <code>(hash, name)</code> pairs in insertion order, followed by their positions sorted by hash.
+ * <li>Hashes table: <code>(hashCode, name, hash)</code> triples in insertion order, followed by their positions sorted by
+ * the <code>String.hashCode()</code> of the name.
+ * <li>String pool: the names, in the same format as a {@link NameArena}; names are offsets into the pool.
+ */
+public class RegistrySnapshot {
+
+	/** Extension added to the name of the registry file, for example <code>reg_file.txt.snapshot</code>. */
+	public static final String EXTENSION = ".snapshot";
+
+	private static final int MAGIC = 0x534D5253;  // SMRS
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 40;
+
+	private final ByteBuffer buffer;
+	private final long sourceLength;
+	private final long sourceModified;
+	private final int sourceChecksum;
+	private final int nameCount;
+	private final int hashCount;
+	private final int poolSize;
+
+	private final int namesOffset;
+	private final int sortedNamesOffset;
+	private final int hashesOffset;
+	private final int sortedHashesOffset;
+	private final int poolOffset;
+
+	/**
+	 * Uses the snapshot contained in the buffer, from its position until its limit.
+	 * @param buffer
+	 * @throws IOException If the data is not a valid snapshot.
+	 */
+	public RegistrySnapshot(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.slice();
+		if (this.buffer.capacity() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC || this.buffer.getInt(4) != VERSION) {
+			throw new IOException("Invalid registry snapshot");
+		}
+		sourceLength = this.buffer.getLong(8);
+		sourceModified = this.buffer.getLong(16);
+		sourceChecksum = this.buffer.getInt(24);
+		nameCount = this.buffer.getInt(28);
+		hashCount = this.buffer.getInt(32);
+		poolSize = this.buffer.getInt(36);
+
+		namesOffset = HEADER_SIZE;
+		sortedNamesOffset = namesOffset + nameCount * 8;
+		hashesOffset = sortedNamesOffset + nameCount * 4;
+		sortedHashesOffset = hashesOffset + hashCount * 12;
+		poolOffset = sortedHashesOffset + hashCount * 4;
+
+		if (nameCount < 0 || hashCount < 0 || poolSize < 0 || (long) poolOffset + poolSize != this.buffer.capacity()) {
+			throw new IOException("Invalid registry snapshot");
+		}
+	}
+
+	/**
+	 * Memory-maps a snapshot file.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static RegistrySnapshot open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new RegistrySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads a snapshot file into memory. Unlike {@link #open(Path)}, the file is not kept mapped,
+	 * so it can be replaced afterwards (a mapped file cannot be replaced on Windows).
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static RegistrySnapshot load(Path path) throws IOException {
+		return new RegistrySnapshot(ByteBuffer.wrap(Files.readAllBytes(path)));
+	}
+
+	/**
+	 * Returns the snapshot of the given registry file, stored in <code>snapshotPath</code>, only if it exists
+	 * and matches the current registry file. The snapshot file is not kept mapped.
+	 * @param source The registry text file.
+	 * @param snapshotPath Where the snapshot is stored.
+	 * @return The snapshot, or null if it must be rebuilt.
+	 */
+	public static RegistrySnapshot find(Path source, Path snapshotPath) {
+		if (Files.exists(snapshotPath)) {
+			try {
+				RegistrySnapshot snapshot = load(snapshotPath);
+				if (snapshot.matches(source)) {
+					return snapshot;
+				}
+			} catch (IOException e) {
+				// Corrupt snapshot, it must be rebuilt
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the snapshot of the given registry file, stored in <code>snapshotPath</code>. If the snapshot does not exist
+	 * or does not match the current registry file, it is rebuilt first. The snapshot file is not kept mapped.
+	 * @param source The registry text file.
+	 * @param snapshotPath Where the snapshot is stored.
+	 * @return
+	 * @throws IOException
+	 */
+	public static RegistrySnapshot forFile(Path source, Path snapshotPath) throws IOException {
+		RegistrySnapshot snapshot = find(source, snapshotPath);
+		if (snapshot != null) {
+			return snapshot;
+		}
+
+		NameRegistry registry = new NameRegistry();
+		new RegistryCodec().read(source, registry);
+		save(registry, source, snapshotPath);
+		return load(snapshotPath);
+	}
+
+	/**
+	 * Writes the snapshot of a registry that contains exactly the entries of the given registry file.
+	 * The snapshot is written to a temporary file first, so a failure never leaves a truncated snapshot.
+	 * @param registry
+	 * @param source The registry text file.
+	 * @param snapshotPath Where the snapshot is stored.
+	 * @throws IOException
+	 */
+	public static void save(NameRegistry registry, Path source, Path snapshotPath) throws IOException {
+		Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+		write(registry, Files.size(source), Files.getLastModifiedTime(source).toMillis(), checksum(source), tempPath);
+		Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Returns the CRC32 checksum of a file, see {@link #checksum(byte[], int, int)}.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static int checksum(Path file) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Returns the CRC32 checksum used to validate snapshots.
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static int checksum(byte[] data, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Returns true if this snapshot was built from the given text.
+	 * @param text
+	 * @return
+	 */
+	public boolean matches(byte[] text) {
+		return text.length == sourceLength && checksum(text, 0, text.length) == sourceChecksum;
+	}
+
+	/**
+	 * Returns true if this snapshot was built from the current contents of the given file. If the length and
+	 * modification time are the same this is assumed to be true; otherwise, the checksum of the file is compared.
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean matches(Path source) throws IOException {
+		long length = Files.size(source);
+		if (length != sourceLength) {
+			return false;
+		}
+		if (Files.getLastModifiedTime(source).toMillis() == sourceModified) {
+			return true;
+		}
+		return checksum(source) == sourceChecksum;
+	}
+
+	public long getSourceLength() {
+		return sourceLength;
+	}
+
+	public long getSourceModified() {
+		return sourceModified;
+	}
+
+	/**
+	 * Returns how many hashes have a name assigned, the equivalent of <code>getNames().size()</code>.
+	 * @return
+	 */
+	public int size() {
+		return nameCount;
+	}
+
+	/**
+	 * Returns the name that is assigned to the given hash, or null if the hash is not assigned.
+	 * @param hash
+	 * @return
+	 */
+	public String getName(int hash) {
+		int position = findName(hash);
+		return position == -1 ? null : decode(buffer.getInt(namesOffset + position * 8 + 4));
+	}
+
+	/**
+	 * Returns true if the given hash is assigned to exactly the given name.
+	 * @param hash
+	 * @param name
+	 * @return
+	 */
+	public boolean hasName(int hash, String name) {
+		int position = findName(hash);
+		return position != -1 && equals(buffer.getInt(namesOffset + position * 8 + 4), name.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns true if the given hash is assigned to exactly the given name, encoded in UTF-8.
+	 * @param hash
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public boolean hasName(int hash, byte[] src, int offset, int length) {
+		int position = findName(hash);
+		return position != -1 && equals(buffer.getInt(namesOffset + position * 8 + 4), src, offset, length);
+	}
+
+	/**
+	 * Returns the hash that is assigned to the given name, or null if the name is not assigned.
+	 * @param name
+	 * @return
+	 */
+	public Integer getHash(String name) {
+		int hashCode = name.hashCode();
+		int low = 0;
+		int high = hashCount - 1;
+		// Find the first entry with this hash code
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midHashCode = buffer.getInt(hashesOffset + buffer.getInt(sortedHashesOffset + mid * 4) * 12);
+			if (midHashCode < hashCode) low = mid + 1;
+			else high = mid - 1;
+		}
+		byte[] bytes = null;
+		for (int i = low; i < hashCount; i++) {
+			int entry = hashesOffset + buffer.getInt(sortedHashesOffset + i * 4) * 12;
+			if (buffer.getInt(entry) != hashCode) break;
+			if (bytes == null) bytes = name.getBytes(StandardCharsets.UTF_8);
+			if (equals(buffer.getInt(entry + 4), bytes)) {
+				return buffer.getInt(entry + 8);
+			}
+		}
+		return null;
+	}
+
+	/** Returns the position in the names table of the given hash, or -1. */
+	private int findName(int hash) {
+		int low = 0;
+		int high = nameCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int position = buffer.getInt(sortedNamesOffset + mid * 4);
+			int midHash = buffer.getInt(namesOffset + position * 8);
+			if (midHash < hash) low = mid + 1;
+			else if (midHash > hash) high = mid - 1;
+			else return position;
+		}
+		return -1;
+	}
+
+	private int lengthAt(int offset) {
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(offset++);
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return length;
+	}
+
+	private int startAt(int offset) {
+		while (buffer.get(offset) < 0) offset++;
+		return offset + 1;
+	}
+
+	private String decode(int ref) {
+		int start = startAt(poolOffset + ref);
+		byte[] bytes = new byte[lengthAt(poolOffset + ref)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private boolean equals(int ref, byte[] bytes) {
+		return equals(ref, bytes, 0, bytes.length);
+	}
+
+	private boolean equals(int ref, byte[] src, int offset, int length) {
+		if (lengthAt(poolOffset + ref) != length) return false;
+		int start = startAt(poolOffset + ref);
+		for (int i = 0; i < length; i++) {
+			if (buffer.get(start + i) != src[offset + i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a registry with all the entries of this snapshot, in the same order. Names are not parsed nor decoded:
+	 * the string pool is copied as the arena of the registry.
+	 * @return
+	 */
+	public NameRegistry toRegistry() {
+		byte[] pool = new byte[poolSize];
+		ByteBuffer source = buffer.duplicate();
+		source.position(poolOffset);
+		source.get(pool);
+
+		NameRegistry registry = new NameRegistry(new NameArena(pool, poolSize), nameCount, hashCount);
+		for (int i = 0; i < hashCount; i++) {
+			int entry = hashesOffset + i * 12;
+			registry.hashes.put(buffer.getInt(entry + 4), buffer.getInt(entry + 8));
+		}
+		for (int i = 0; i < nameCount; i++) {
+			int entry = namesOffset + i * 8;
+			registry.names.put(buffer.getInt(entry), buffer.getInt(entry + 4));
+		}
+		return registry;
+	}
+
+	/**
+	 * Writes the snapshot of a registry into a file.
+	 * @param registry
+	 * @param sourceLength Length of the registry text file.
+	 * @param sourceModified Modification time of the registry text file, in milliseconds, or 0 to always compare the checksum.
+	 * @param sourceChecksum Checksum of the registry text file, see {@link #checksum(byte[], int, int)}.
+	 * @param output
+	 * @throws IOException
+	 */
+	public static void write(NameRegistry registry, long sourceLength, long sourceModified, int sourceChecksum, Path output) throws IOException {
+		IntNameMap names = registry.names;
+		NameIntMap hashes = registry.hashes;
+		NameArena arena = registry.arena;
+
+		int nameCount = names.size();
+		int hashCount = hashes.size();
+		int poolSize = arena.size();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + nameCount * 12 + hashCount * 16 + poolSize);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(sourceLength);
+		buffer.putLong(sourceModified);
+		buffer.putInt(sourceChecksum);
+		buffer.putInt(nameCount);
+		buffer.putInt(hashCount);
+		buffer.putInt(poolSize);
+
+		// Sort the positions by packing them with the key: (key << 32) | position
+		long[] sorted = new long[nameCount];
+		int position = 0;
+		for (int i = 0, count = names.entryCount(); i < count; i++) {
+			if (!names.isLive(i)) continue;
+			buffer.putInt(names.keyAt(i));
+			buffer.putInt(names.refAt(i));
+			sorted[position] = ((long) names.keyAt(i) << 32) | position;
+			++position;
+		}
+		Arrays.sort(sorted);
+		for (long value : sorted) {
+			buffer.putInt((int) value);
+		}
+
+		sorted = new long[hashCount];
+		position = 0;
+		for (int i = 0, count = hashes.entryCount(); i < count; i++) {
+			if (!hashes.isLive(i)) continue;
+			int hashCode = arena.hash(hashes.refAt(i));
+			buffer.putInt(hashCode);
+			buffer.putInt(hashes.refAt(i));
+			buffer.putInt(hashes.valueAt(i));
+			sorted[position] = ((long) hashCode << 32) | position;
+			++position;
+		}
+		Arrays.sort(sorted);
+		for (long value : sorted) {
+			buffer.putInt((int) value);
+		}
+
+		buffer.put(arena.array(), 0, poolSize);
+		buffer.flip();
+
+		try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Generates the snapshots of all the <code>reg_*.txt</code> files in a folder; this is executed by the Maven build.
+	 * Arguments: the folder with the registry files, and the output folder.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		Path inputFolder = Paths.get(args[0]);
+		Path outputFolder = Paths.get(args[1]);
+		Files.createDirectories(outputFolder);
+
+		RegistryCodec codec = new RegistryCodec();
+		File[] files = inputFolder.toFile().listFiles((dir, name) -> name.startsWith("reg_") && name.endsWith(".txt"));
+		for (File file : files) {
+			byte[] text = Files.readAllBytes(file.toPath());
+			NameRegistry registry = new NameRegistry();
+			codec.read(new ByteArrayInputStream(text), registry);
+			// Bundled snapshots are only checked by length and checksum, and the pack must not change between builds
+			write(registry, text.length, 0, checksum(text, 0, text.length),
+					outputFolder.resolve(file.getName() + EXTENSION));
+		}
+	}
+}
@@ -0,0 +1,542 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks the integrity of registry files: the problems that {@link NameRegistry} would silently accept, as every line
+ * overwrites what previous lines assigned. All the registries are checked together, so collisions between different
+ * registries are found too.
+ * <p>
+ * Files are read and parsed in parallel, splitting them into ranges of lines with fork/join tasks, and the hashes are
+ * grouped with a parallel sort. The kinds of findings are:
+ * <li><code>invalid</code> (error): the hash of a line cannot be parsed, reading the registry would fail.
+ * <li><code>collision</code> (error): different names have the same FNV hash and use it, in the same or different registries.
+ * <li><code>alias</code> (warning): a line assigns a hash to a name whose FNV hash it is not, and another name in the
+ * same registry also has that hash; only one of them can be the name of the hash.
+ * <li><code>reassigned</code> (warning): a name is assigned different hashes in the same registry; only the last one is used.
+ * <li><code>mismatch</code>, <code>redundant</code> (info): the hash of a line is not, or is, the FNV hash of the name.
+ * <p>
+ * When it is used as a release gate, the errors that are known and accepted (for example, collisions that also exist in
+ * the game) are listed in a baseline file, see {@link Finding#getKey()}; only the other errors fail the validation.
+ */
+public class RegistryValidator {
+
+	public enum Severity { ERROR, WARNING, INFO }
+
+	public enum Kind {
+		INVALID(Severity.ERROR),
+		COLLISION(Severity.ERROR),
+		ALIAS(Severity.WARNING),
+		REASSIGNED(Severity.WARNING),
+		MISMATCH(Severity.INFO),
+		REDUNDANT(Severity.INFO);
+
+		public final Severity severity;
+
+		private Kind(Severity severity) {
+			this.severity = severity;
+		}
+
+		@Override
+		public String toString() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/** A line of a registry involved in a finding. */
+	public static class Occurrence {
+		public final String file;
+		/** Line number, starting at 1. */
+		public final int line;
+		public final String name;
+		public final int hash;
+
+		public Occurrence(String file, int line, String name, int hash) {
+			this.file = file;
+			this.line = line;
+			this.name = name;
+			this.hash = hash;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s:%d %s\t0x%x", file, line, name, hash);
+		}
+	}
+
+	public static class Finding {
+		public final Kind kind;
+		public final int hash;
+		public final List<Occurrence> occurrences;
+
+		public Finding(Kind kind, int hash, List<Occurrence> occurrences) {
+			this.kind = kind;
+			this.hash = hash;
+			this.occurrences = occurrences;
+		}
+
+		/**
+		 * Returns a key that identifies the finding in a baseline file: the kind, the hash, and the names (in lowercase and
+		 * sorted). It does not include files or line numbers, so it does not change when lines are added to the registries.
+		 * @return
+		 */
+		public String getKey() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(kind).append("\t0x").append(Integer.toHexString(hash));
+			Set<String> names = new TreeSet<>();
+			for (Occurrence occurrence : occurrences) {
+				names.add(occurrence.name.toLowerCase(Locale.ROOT));
+			}
+			for (String name : names) {
+				sb.append('\t').append(name);
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(kind).append(" 0x").append(Integer.toHexString(hash)).append(':');
+			for (Occurrence occurrence : occurrences) {
+				sb.append("\n    ").append(occurrence);
+			}
+			return sb.toString();
+		}
+	}
+
+	public static class Report {
+		public final List<Finding> findings;
+		public final int registries;
+		public final int entries;
+
+		public Report(List<Finding> findings, int registries, int entries) {
+			this.findings = findings;
+			this.registries = registries;
+			this.entries = entries;
+		}
+
+		public List<Finding> getFindings(Kind kind) {
+			return findings.stream().filter(f -> f.kind == kind).collect(Collectors.toList());
+		}
+
+		/**
+		 * Returns the errors whose key is not in the baseline.
+		 * @param baseline
+		 * @return
+		 */
+		public List<Finding> getErrors(Set<String> baseline) {
+			return findings.stream().filter(f -> f.kind.severity == Severity.ERROR && !baseline.contains(f.getKey()))
+					.collect(Collectors.toList());
+		}
+	}
+
+	/** Parsed lines of a registry file; arrays are indexed by line. */
+	private static class Registry {
+		final String file;
+		final byte[] data;
+		final int[] lines;
+		final boolean[] isEntry;
+		final boolean[] hasHash;
+		final int[] hashes;
+		final int[] fnvHashes;
+		final int[] nameStarts;
+		final int[] nameLengths;
+		/** Names that are not stored as they are in the data, because they were decoded. */
+		final byte[][] names;
+		final List<Finding> invalid = Collections.synchronizedList(new ArrayList<>());
+
+		Registry(Path path) throws IOException {
+			file = path.getFileName().toString();
+			data = Files.readAllBytes(path);
+			lines = RegistryCodec.splitLines(data);
+			int count = lines.length / 3;
+			isEntry = new boolean[count];
+			hasHash = new boolean[count];
+			hashes = new int[count];
+			fnvHashes = new int[count];
+			nameStarts = new int[count];
+			nameLengths = new int[count];
+			names = new byte[count][];
+		}
+
+		int lineCount() {
+			return isEntry.length;
+		}
+
+		boolean isNatural(int line) {
+			return hashes[line] == fnvHashes[line];
+		}
+
+		byte[] nameArray(int line) {
+			return names[line] != null ? names[line] : data;
+		}
+
+		String getName(int line) {
+			return new String(nameArray(line), nameStarts[line], nameLengths[line], StandardCharsets.UTF_8);
+		}
+
+		Occurrence getOccurrence(int line) {
+			return new Occurrence(file, line + 1, getName(line), hashes[line]);
+		}
+	}
+
+	/** Parses a range of lines of a registry, splitting it in halves while it is too big. */
+	private static class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 8192;
+
+		private final Registry registry;
+		private final int first;
+		private final int last;
+
+		ParseTask(Registry registry, int first, int last) {
+			this.registry = registry;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first > THRESHOLD) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new ParseTask(registry, first, middle), new ParseTask(registry, middle, last));
+				return;
+			}
+			Registry r = registry;
+			new RegistryCodec().parseLines(r.data, r.lines, first, last, new RegistryCodec.EntryVisitor() {
+				@Override
+				public void visit(int line, byte[] b, int start, int length, int hash, boolean hasHash) {
+					r.isEntry[line] = true;
+					r.hasHash[line] = hasHash;
+					r.hashes[line] = hash;
+					r.fnvHashes[line] = hasHash ? RegistryCodec.fnvHash(b, start, length) : hash;
+					if (b != r.data) {
+						r.names[line] = Arrays.copyOfRange(b, start, start + length);
+						start = 0;
+					}
+					r.nameStarts[line] = start;
+					r.nameLengths[line] = length;
+				}
+
+				@Override
+				public void invalid(int line, NumberFormatException e) {
+					String text = new String(r.data, r.lines[3 * line], r.lines[3 * line + 1] - r.lines[3 * line], StandardCharsets.UTF_8);
+					r.invalid.add(new Finding(Kind.INVALID, 0, Collections.singletonList(new Occurrence(r.file, line + 1, text.trim(), 0))));
+				}
+			});
+		}
+	}
+
+	private final List<Registry> registries = new ArrayList<>();
+
+	/**
+	 * Validates the given registry files.
+	 * @param paths
+	 * @return
+	 * @throws IOException
+	 */
+	public static Report validate(List<Path> paths) throws IOException {
+		return new RegistryValidator().run(paths);
+	}
+
+	private Report run(List<Path> paths) throws IOException {
+		if (paths.size() > 0x7F) {
+			throw new IllegalArgumentException("Too many registries");
+		}
+		List<ForkJoinTask<Registry>> reads = new ArrayList<>();
+		for (Path path : paths) {
+			reads.add(ForkJoinTask.adapt(() -> {
+				Registry registry = new Registry(path);
+				new ParseTask(registry, 0, registry.lineCount()).invoke();
+				return registry;
+			}).fork());
+		}
+		int entries = 0;
+		for (ForkJoinTask<Registry> read : reads) {
+			try {
+				registries.add(read.join());
+			} catch (RuntimeException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw e;
+			}
+		}
+
+		// Every entry is identified by (registry << 24 | line), sorted together with one of its hashes
+		List<Finding> findings = Collections.synchronizedList(new ArrayList<>());
+		long[] assigned;
+		long[] natural;
+		long[] named;
+		{
+			int total = 0;
+			for (Registry registry : registries) {
+				total += registry.lineCount();
+				findings.addAll(registry.invalid);
+			}
+			assigned = new long[total];
+			natural = new long[total];
+			named = new long[total];
+			int assignedCount = 0, naturalCount = 0, namedCount = 0;
+			for (int r = 0; r < registries.size(); r++) {
+				Registry registry = registries.get(r);
+				if (registry.lineCount() >= 1 << 24) {
+					throw new IllegalArgumentException(registry.file + " has too many lines");
+				}
+				for (int line = 0; line < registry.lineCount(); line++) {
+					if (!registry.isEntry[line]) continue;
+					long id = r << 24 | line;
+					++entries;
+					assigned[assignedCount++] = (registry.hashes[line] & 0xFFFFFFFFL) << 32 | id;
+					if (registry.isNatural(line)) {
+						natural[naturalCount++] = (registry.fnvHashes[line] & 0xFFFFFFFFL) << 32 | id;
+					}
+					if (registry.hasHash[line]) {
+						named[namedCount++] = (registry.fnvHashes[line] & 0xFFFFFFFFL) << 32 | id;
+						Kind kind = registry.isNatural(line) ? Kind.REDUNDANT : Kind.MISMATCH;
+						findings.add(new Finding(kind, registry.hashes[line], Collections.singletonList(registry.getOccurrence(line))));
+					}
+				}
+			}
+			assigned = Arrays.copyOf(assigned, assignedCount);
+			natural = Arrays.copyOf(natural, naturalCount);
+			named = Arrays.copyOf(named, namedCount);
+		}
+
+		long[] assignedIds = assigned;
+		long[] naturalIds = natural;
+		long[] namedIds = named;
+		ForkJoinTask.invokeAll(
+				ForkJoinTask.adapt(() -> findCollisions(naturalIds, findings)),
+				ForkJoinTask.adapt(() -> findAliases(assignedIds, findings)),
+				ForkJoinTask.adapt(() -> findReassigned(namedIds, findings)));
+
+		List<Finding> result = new ArrayList<>(findings);
+		result.sort((a, b) -> a.kind != b.kind ? a.kind.compareTo(b.kind) : Integer.compareUnsigned(a.hash, b.hash));
+		return new Report(result, registries.size(), entries);
+	}
+
+	private Registry registryOf(long id) {
+		return registries.get((int) (id >>> 24) & 0x7F);
+	}
+
+	private static int lineOf(long id) {
+		return (int) id & 0xFFFFFF;
+	}
+
+	/** Returns the index after the group of ids with the same hash that starts at the given index. */
+	private static int groupEnd(long[] ids, int start) {
+		int end = start + 1;
+		while (end < ids.length && (ids[end] >>> 32) == (ids[start] >>> 32)) ++end;
+		return end;
+	}
+
+	/** Returns true if two entries have the same name, ignoring case. */
+	private boolean sameName(long a, long b) {
+		Registry ra = registryOf(a), rb = registryOf(b);
+		int la = lineOf(a), lb = lineOf(b);
+		int length = ra.nameLengths[la];
+		if (length != rb.nameLengths[lb]) {
+			return ra.getName(la).toLowerCase(Locale.ROOT).equals(rb.getName(lb).toLowerCase(Locale.ROOT));
+		}
+		byte[] ba = ra.nameArray(la), bb = rb.nameArray(lb);
+		int sa = ra.nameStarts[la], sb = rb.nameStarts[lb];
+		for (int i = 0; i < length; i++) {
+			byte ca = ba[sa + i], cb = bb[sb + i];
+			if (ca == cb) continue;
+			if (ca < 0 || cb < 0) {
+				return ra.getName(la).toLowerCase(Locale.ROOT).equals(rb.getName(lb).toLowerCase(Locale.ROOT));
+			}
+			if ((ca | 0x20) != (cb | 0x20) || (ca | 0x20) < 'a' || (ca | 0x20) > 'z') return false;
+		}
+		return true;
+	}
+
+	/** Returns the first entry of every different name of a group of ids. */
+	private List<Long> distinctNames(long[] ids, int start, int end) {
+		List<Long> distinct = new ArrayList<>();
+		for (int i = start; i < end; i++) {
+			boolean found = false;
+			for (long other : distinct) {
+				if (sameName(ids[i], other)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) distinct.add(ids[i]);
+		}
+		return distinct;
+	}
+
+	private List<Occurrence> getOccurrences(List<Long> ids) {
+		List<Occurrence> list = new ArrayList<>(ids.size());
+		for (long id : ids) {
+			list.add(registryOf(id).getOccurrence(lineOf(id)));
+		}
+		return list;
+	}
+
+	/** Different names that use the same FNV hash, in any registry. */
+	private void findCollisions(long[] natural, List<Finding> findings) {
+		Arrays.parallelSort(natural);
+		for (int start = 0, end; start < natural.length; start = end) {
+			end = groupEnd(natural, start);
+			if (end - start == 1) continue;
+			List<Long> distinct = distinctNames(natural, start, end);
+			if (distinct.size() > 1) {
+				findings.add(new Finding(Kind.COLLISION, (int) (natural[start] >>> 32), getOccurrences(distinct)));
+			}
+		}
+	}
+
+	/** Names of the same registry that are assigned the same hash, when at least one of them is not its FNV hash. */
+	private void findAliases(long[] assigned, List<Finding> findings) {
+		Arrays.parallelSort(assigned);
+		for (int start = 0, end; start < assigned.length; start = end) {
+			end = groupEnd(assigned, start);
+			// Ids of the same hash are sorted by registry
+			for (int r = start, rEnd; r < end; r = rEnd) {
+				rEnd = r + 1;
+				while (rEnd < end && registryOf(assigned[rEnd]) == registryOf(assigned[r])) ++rEnd;
+				if (rEnd - r == 1) continue;
+
+				boolean explicit = false;
+				for (int i = r; i < rEnd && !explicit; i++) {
+					explicit = !registryOf(assigned[i]).isNatural(lineOf(assigned[i]));
+				}
+				if (!explicit) continue;
+				List<Long> distinct = distinctNames(assigned, r, rEnd);
+				if (distinct.size() > 1) {
+					findings.add(new Finding(Kind.ALIAS, (int) (assigned[start] >>> 32), getOccurrences(distinct)));
+				}
+			}
+		}
+	}
+
+	/** Names that are assigned different hashes in the same registry. */
+	private void findReassigned(long[] named, List<Finding> findings) {
+		Arrays.parallelSort(named);
+		for (int start = 0, end; start < named.length; start = end) {
+			end = groupEnd(named, start);
+			if (end - start == 1) continue;
+			// The same name can only be in entries of the same FNV hash, which are sorted by registry and line
+			boolean[] used = new boolean[end - start];
+			for (int i = start; i < end; i++) {
+				if (used[i - start]) continue;
+				Registry registry = registryOf(named[i]);
+				List<Long> same = new ArrayList<>();
+				Set<Integer> hashes = new HashSet<>();
+				for (int j = i; j < end; j++) {
+					if (!used[j - start] && registryOf(named[j]) == registry && sameName(named[i], named[j])) {
+						used[j - start] = true;
+						same.add(named[j]);
+						hashes.add(registry.hashes[lineOf(named[j])]);
+					}
+				}
+				if (hashes.size() > 1) {
+					findings.add(new Finding(Kind.REASSIGNED, (int) (named[i] >>> 32), getOccurrences(same)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a baseline file: the keys of the accepted findings, one per line. Empty lines and lines starting with # are ignored.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static Set<String> readBaseline(Path path) throws IOException {
+		Set<String> keys = new HashSet<>();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				keys.add(line);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Validates registries; this is executed when releasing a new version, before their changes are collected.
+	 * Arguments: registry files, or folders whose <code>reg_*.txt</code> files are validated, and the options:
+	 * <li><code>--baseline &lt;file&gt;</code>: errors listed in this file are accepted.
+	 * <li><code>--write-baseline &lt;file&gt;</code>: writes all the current errors into a baseline file.
+	 * <li><code>--verbose</code>: also lists the warnings and infos, not only how many there are.
+	 * <p>
+	 * The exit code is 1 if there are errors that are not in the baseline.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		List<Path> paths = new ArrayList<>();
+		Set<String> baseline = new HashSet<>();
+		Path writeBaseline = null;
+		boolean verbose = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--baseline") && i + 1 < args.length) {
+				baseline = readBaseline(Paths.get(args[++i]));
+			}
+			else if (args[i].equals("--write-baseline") && i + 1 < args.length) {
+				writeBaseline = Paths.get(args[++i]);
+			}
+			else if (args[i].equals("--verbose")) {
+				verbose = true;
+			}
+			else if (Files.isDirectory(Paths.get(args[i]))) {
+				try (Stream<Path> stream = Files.list(Paths.get(args[i]))) {
+					stream.filter(p -> p.getFileName().toString().matches("reg_.*\\.txt")).sorted().forEach(paths::add);
+				}
+			}
+			else {
+				paths.add(Paths.get(args[i]));
+			}
+		}
+		if (paths.isEmpty()) {
+			System.err.println("Usage: RegistryValidator [--baseline <file>] [--write-baseline <file>] [--verbose] <registry or folder>...");
+			System.exit(2);
+		}
+
+		long time = System.nanoTime();
+		Report report = validate(paths);
+		time = System.nanoTime() - time;
+
+		List<Finding> errors = report.getErrors(baseline);
+		for (Kind kind : Kind.values()) {
+			List<Finding> findings = report.getFindings(kind);
+			System.out.println(String.format("%s: %d", kind, findings.size()));
+			for (Finding finding : findings) {
+				if (errors.contains(finding) || (verbose && kind.severity != Severity.ERROR)) {
+					System.out.println("  " + finding);
+				}
+			}
+		}
+		System.out.println(String.format("Validated %d entries of %d registries in %d ms; %d errors, %d accepted by the baseline",
+				report.entries, report.registries, time / 1000000,
+				errors.size(), report.findings.stream().filter(f -> f.kind.severity == Severity.ERROR).count() - errors.size()));
+
+		if (writeBaseline != null) {
+			List<String> keys = report.findings.stream().filter(f -> f.kind.severity == Severity.ERROR)
+					.map(Finding::getKey).distinct().collect(Collectors.toList());
+			keys.add(0, "# Registry errors accepted by RegistryValidator");
+			Files.write(writeBaseline, keys, StandardCharsets.UTF_8);
+		}
+		if (!errors.isEmpty()) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package sporemodder.updater;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The list of files bundled in the `resources` package, with the size and SHA-256 of each one.
+ * It is used by {@link Updater} to skip the files that are already installed with the same contents.
+ * The Maven build stores it in the table of the {@link ResourcePack}; when the resources are not packed,
+ * it is read from <code>resources/manifest.txt</code>, which can be generated with {@link #main(String[])}.
+ * <p>
+ * Every line is <code>sha256 \t size \t path</code>, where the path is relative to the `resources` package
+ * and always uses '/' as separator.
+ */
+public class ResourceManifest {
+
+	/** Path of the manifest, relative to the `resources` package. */
+	public static final String FILE_NAME = "manifest.txt";
+
+	public static class Entry {
+		public final String path;
+		public final long size;
+		public final byte[] sha256;
+
+		public Entry(String path, long size, byte[] sha256) {
+			this.path = path;
+			this.size = size;
+			this.sha256 = sha256;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void add(Entry entry) {
+		entries.put(entry.path, entry);
+	}
+
+	/**
+	 * Returns true if the given file has exactly the same contents as the bundled resource. The file is only hashed
+	 * if its size is the same as the resource's.
+	 * @param path Path to the resource, relative to the `resources` package.
+	 * @param file
+	 * @return False if the resource is not in the manifest, or the file does not exist or is different.
+	 * @throws IOException
+	 */
+	public boolean matches(String path, Path file) throws IOException {
+		Entry entry = entries.get(path);
+		if (entry == null || !Files.isRegularFile(file) || Files.size(file) != entry.size) {
+			return false;
+		}
+		return MessageDigest.isEqual(sha256(file), entry.sha256);
+	}
+
+	public void read(InputStream stream) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) continue;
+				String[] splits = line.split("\t", 3);
+				if (splits.length != 3) {
+					throw new IOException("Invalid manifest line: " + line);
+				}
+				add(new Entry(splits[2], Long.parseLong(splits[1]), fromHex(splits[0])));
+			}
+		}
+	}
+
+	public void write(Path output) throws IOException {
+		List<Entry> sorted = new ArrayList<>(entries.values());
+		sorted.sort((a, b) -> a.path.compareTo(b.path));
+		try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			for (Entry entry : sorted) {
+				writer.write(toHex(entry.sha256));
+				writer.write('\t');
+				writer.write(Long.toString(entry.size));
+				writer.write('\t');
+				writer.write(entry.path);
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Adds all the files inside the given folder (recursively), using paths relative to it.
+	 * @param folder
+	 * @throws IOException
+	 */
+	public void addFolder(Path folder) throws IOException {
+		List<Path> files;
+		try (Stream<Path> stream = Files.walk(folder)) {
+			files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			String path = folder.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+			add(new Entry(path, Files.size(file), sha256(file)));
+		}
+	}
+
+	/**
+	 * Calculates the SHA-256 digest of a file.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] sha256(Path file) throws IOException {
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return digest.digest();
+	}
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform must support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	public static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Generates the manifest of a resources folder.
+	 * Arguments: the resources folder, and the output manifest file.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		ResourceManifest manifest = new ResourceManifest();
+		manifest.addFolder(Paths.get(args[0]));
+		Path output = Paths.get(args[1]);
+		Files.createDirectories(output.getParent());
+		manifest.write(output);
+	}
+}
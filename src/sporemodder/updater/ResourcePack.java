@@ -0,0 +1,323 @@
+package sporemodder.updater;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * All the files of the `resources` package compressed together into a single solid stream, so that similar files
+ * (like the two themes) compress better and the updater does not need to look up every file in the jar.
+ * It is generated by the Maven build into <code>sporemodder/updater/resources.pack</code>.
+ * <p>
+ * The pack starts with a table of all its entries: path, offset and size in the uncompressed stream, and SHA-256
+ * (so it also replaces the {@link ResourceManifest}). After it, all the files are concatenated and compressed with zlib,
+ * sorted by path. As the stream is solid, entries can only be read in the order of the table; skipping an entry
+ * still needs to decompress it.
+ * <p>
+ * Files with the same contents (like images shared by the two themes) are stored once: all their entries have the
+ * offset of the first one in the table, which is the only one that can be read, see {@link #getStoredEntries(List)}.
+ * <p>
+ * Data is decompressed into a reusable direct buffer and written directly to the output channel, without
+ * intermediate arrays.
+ */
+public class ResourcePack implements Closeable {
+
+	/** Path of the pack, relative to the `sporemodder/updater` package. */
+	public static final String FILE_NAME = "resources.pack";
+	/** System property that makes the build leave out the files that have a patch, see {@link #write(List, Path, boolean)}. */
+	public static final String PATCH_ONLY_PROPERTY = "sporemodder.updater.patchOnly";
+
+	private static final int MAGIC = 0x534D5250;  // SMRP
+	private static final int VERSION = 2;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	public static class Entry {
+		public final String path;
+		public final long offset;
+		public final long size;
+		public final byte[] sha256;
+
+		public Entry(String path, long offset, long size, byte[] sha256) {
+			this.path = path;
+			this.offset = offset;
+			this.size = size;
+			this.sha256 = sha256;
+		}
+	}
+
+	private final List<Entry> entries;
+	private final InputStream input;
+	private final Inflater inflater = new Inflater();
+	private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	/** Position in the uncompressed stream. */
+	private long position;
+
+	/**
+	 * Reads the table of a pack; the entries are then read from the stream as they are requested.
+	 * @param stream
+	 * @throws IOException
+	 */
+	public ResourcePack(InputStream stream) throws IOException {
+		input = new BufferedInputStream(stream, BUFFER_SIZE);
+		DataInputStream data = new DataInputStream(input);
+		if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+			throw new IOException("Invalid resource pack");
+		}
+		int count = data.readInt();
+		List<Entry> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String path = data.readUTF();
+			long offset = data.readLong();
+			long size = data.readLong();
+			byte[] sha256 = new byte[32];
+			data.readFully(sha256);
+			list.add(new Entry(path, offset, size, sha256));
+		}
+		entries = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Opens the pack bundled with the updater.
+	 * @return The pack, or null if the updater was not packaged with one (for example, when running from the IDE).
+	 * @throws IOException
+	 */
+	public static ResourcePack open() throws IOException {
+		InputStream stream = ResourcePack.class.getResourceAsStream(FILE_NAME);
+		return stream == null ? null : new ResourcePack(stream);
+	}
+
+	/**
+	 * Returns all the entries, in the order they are stored.
+	 * @return
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Returns, for every entry, the entry that must be read to get its contents: the first one in the table with
+	 * the same SHA-256, which might be itself. Patches are always stored separately, so they are their own entry.
+	 * @param entries The entries of a pack, in the order they are stored.
+	 * @return
+	 */
+	public static Map<Entry, Entry> getStoredEntries(List<Entry> entries) {
+		Map<ByteBuffer, Entry> stored = new HashMap<>();
+		Map<Entry, Entry> result = new HashMap<>();
+		for (Entry entry : entries) {
+			result.put(entry, DeltaPatch.getTarget(entry.path) != null ? entry : stored.computeIfAbsent(ByteBuffer.wrap(entry.sha256), k -> entry));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a manifest with the size and SHA-256 of all the entries.
+	 * @return
+	 */
+	public ResourceManifest getManifest() {
+		ResourceManifest manifest = new ResourceManifest();
+		for (Entry entry : entries) {
+			manifest.add(new ResourceManifest.Entry(entry.path, entry.size, entry.sha256));
+		}
+		return manifest;
+	}
+
+	/**
+	 * Decompresses an entry and writes it to the given channel.
+	 * @param entry
+	 * @param output
+	 * @return How many bytes were written.
+	 * @throws IOException
+	 * @throws IllegalStateException If an entry after this one has already been read.
+	 */
+	public long transferTo(Entry entry, WritableByteChannel output) throws IOException {
+		seek(entry.offset);
+		long remaining = entry.size;
+		while (remaining > 0) {
+			buffer.clear();
+			buffer.limit((int) Math.min(remaining, BUFFER_SIZE));
+			inflate(buffer);
+			buffer.flip();
+			remaining -= buffer.remaining();
+			while (buffer.hasRemaining()) {
+				output.write(buffer);
+			}
+		}
+		return entry.size;
+	}
+
+	/**
+	 * Decompresses an entry into memory.
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalStateException If an entry after this one has already been read.
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		seek(entry.offset);
+		byte[] bytes = new byte[Math.toIntExact(entry.size)];
+		inflate(ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+
+	private void seek(long offset) throws IOException {
+		if (offset < position) {
+			throw new IllegalStateException("Resource pack entries must be read in order");
+		}
+		while (position < offset) {
+			buffer.clear();
+			buffer.limit((int) Math.min(offset - position, BUFFER_SIZE));
+			inflate(buffer);
+		}
+	}
+
+	/** Fills the remaining space of the buffer with decompressed data. */
+	private void inflate(ByteBuffer dst) throws IOException {
+		try {
+			while (dst.hasRemaining()) {
+				int count = inflater.inflate(dst);
+				if (count == 0) {
+					if (inflater.finished() || inflater.needsDictionary()) {
+						throw new EOFException("Unexpected end of resource pack");
+					}
+					if (inflater.needsInput()) {
+						int read = input.read(inputBuffer);
+						if (read == -1) {
+							throw new EOFException("Unexpected end of resource pack");
+						}
+						inflater.setInput(inputBuffer, 0, read);
+					}
+				}
+				position += count;
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		input.close();
+	}
+
+	/**
+	 * Writes a pack with all the files inside the given folders (recursively), using paths relative to each folder.
+	 * If the same path exists in more than one folder, the file of the last folder is used.
+	 * <p>
+	 * {@link DeltaPatch Patches} are stored before all the other files, so the updater can read them before deciding
+	 * how to extract the files they patch; every patch must produce the file bundled with it. Other files with the
+	 * same contents are only stored once.
+	 * @param folders
+	 * @param output
+	 * @param patchOnly If true, files that have a patch are not included, so the pack can only update the version
+	 * the patches were made for.
+	 * @throws IOException
+	 */
+	public static void write(List<Path> folders, Path output, boolean patchOnly) throws IOException {
+		TreeMap<String, Path> files = new TreeMap<>((a, b) -> {
+			boolean patchA = DeltaPatch.getTarget(a) != null;
+			boolean patchB = DeltaPatch.getTarget(b) != null;
+			return patchA != patchB ? (patchA ? -1 : 1) : a.compareTo(b);
+		});
+		for (Path folder : folders) {
+			List<Path> list;
+			try (Stream<Path> stream = Files.walk(folder)) {
+				list = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+			}
+			for (Path file : list) {
+				files.put(folder.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"), file);
+			}
+		}
+		List<String> targets = new ArrayList<>();
+		for (Map.Entry<String, Path> file : files.entrySet()) {
+			String target = DeltaPatch.getTarget(file.getKey());
+			if (target != null && files.containsKey(target)) {
+				DeltaPatch patch = new DeltaPatch(Files.readAllBytes(file.getValue()));
+				if (!MessageDigest.isEqual(patch.getTargetSha256(), ResourceManifest.sha256(files.get(target)))) {
+					throw new IOException(file.getKey() + " does not produce the current " + target + ", it must be created again");
+				}
+				targets.add(target);
+			}
+		}
+		if (patchOnly) {
+			files.keySet().removeAll(targets);
+		}
+
+		Files.createDirectories(output.getParent());
+		try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(output), BUFFER_SIZE)) {
+			DataOutputStream data = new DataOutputStream(stream);
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(files.size());
+			long offset = 0;
+			// Offset of every stored content, by its SHA-256
+			Map<ByteBuffer, Long> stored = new HashMap<>();
+			List<Path> blobs = new ArrayList<>();
+			for (Map.Entry<String, Path> file : files.entrySet()) {
+				long size = Files.size(file.getValue());
+				byte[] sha256 = ResourceManifest.sha256(file.getValue());
+				// Patches are read before the other files, so they are always stored
+				Long blobOffset = DeltaPatch.getTarget(file.getKey()) == null ? stored.putIfAbsent(ByteBuffer.wrap(sha256), offset) : null;
+				data.writeUTF(file.getKey());
+				data.writeLong(blobOffset != null ? blobOffset : offset);
+				data.writeLong(size);
+				data.write(sha256);
+				if (blobOffset == null) {
+					blobs.add(file.getValue());
+					offset += size;
+				}
+			}
+			data.flush();
+
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+			try (DeflaterOutputStream deflated = new DeflaterOutputStream(stream, deflater, BUFFER_SIZE)) {
+				for (Path file : blobs) {
+					Files.copy(file, deflated);
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Generates the pack of the resources folder; this is executed by the Maven build.
+	 * Arguments: the output pack file, and one or more folders to include. If the system property
+	 * `sporemodder.updater.patchOnly` is true, files that have a patch are not included.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		List<Path> folders = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			folders.add(Paths.get(args[i]));
+		}
+		write(folders, Paths.get(args[0]), Boolean.getBoolean(PATCH_ONLY_PROPERTY));
+	}
+}
@@ -0,0 +1,103 @@
+package sporemodder.updater;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The list of all the theme files of the `resources` package, so that {@link UpdatePlan} extracts every file of
+ * every theme without listing them by hand. It is generated by the Maven build into
+ * <code>sporemodder/updater/themes.txt</code>; when running from the sources, the folder is listed instead.
+ * <p>
+ * Files directly inside the `Styles` folder are the {@link #DEFAULT_THEME}, and every subfolder is another theme.
+ * Every line is a path relative to the `Styles` folder, always using '/' as separator.
+ */
+public class ThemeManifest {
+
+	/** Path of the manifest, relative to the `sporemodder/updater` package. */
+	public static final String FILE_NAME = "themes.txt";
+	/** Folder of the themes, relative to the `resources` package and to SMFX base folder. */
+	public static final String FOLDER = "Styles";
+	/** Theme of the files directly inside the `Styles` folder of the `resources` package. */
+	public static final String DEFAULT_THEME = "Default";
+
+	/**
+	 * Returns the paths of all the files inside a themes folder, relative to it and sorted.
+	 * @param folder
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<String> list(Path folder) throws IOException {
+		try (Stream<Path> stream = Files.walk(folder)) {
+			return stream.filter(Files::isRegularFile)
+					.map(file -> folder.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Returns the theme files bundled with the updater.
+	 * @return Paths relative to the `Styles` folder of the `resources` package.
+	 * @throws IOException If there is no manifest and the `resources` package is not a folder.
+	 */
+	public static List<String> read() throws IOException {
+		try (InputStream stream = ThemeManifest.class.getResourceAsStream(FILE_NAME)) {
+			if (stream != null) {
+				List<String> files = new ArrayList<>();
+				BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty()) files.add(line);
+				}
+				return files;
+			}
+		}
+		URL url = ThemeManifest.class.getResource("/sporemodder/updater/resources/" + FOLDER);
+		if (url == null || !"file".equals(url.getProtocol())) {
+			throw new IOException("Missing " + FILE_NAME + ", the updater was not built correctly");
+		}
+		try {
+			return list(Paths.get(url.toURI()));
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Returns where a theme file is extracted, relative to SMFX base folder.
+	 * @param file Path relative to the `Styles` folder of the `resources` package.
+	 * @return
+	 */
+	public static String getOutputPath(String file) {
+		if (file.indexOf('/') == -1) {
+			file = DEFAULT_THEME + '/' + file;
+		}
+		return FOLDER + File.separatorChar + file.replace('/', File.separatorChar);
+	}
+
+	/**
+	 * Generates the manifest of a themes folder; this is executed by the Maven build.
+	 * Arguments: the `Styles` folder of the `resources` package, and the output file.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		List<String> files = list(Paths.get(args[0]));
+		Path output = Paths.get(args[1]);
+		Files.createDirectories(output.getParent());
+		Files.write(output, files, StandardCharsets.UTF_8);
+	}
+}
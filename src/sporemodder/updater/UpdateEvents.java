@@ -0,0 +1,94 @@
+package sporemodder.updater;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events of the updater, committed by {@link UpdateTelemetry}. They only have a cost when a
+ * recording is enabled, for example with <code>-XX:StartFlightRecording=filename=update.jfr</code>.
+ * <p>
+ * This class is only loaded if the runtime has the <code>jdk.jfr</code> module.
+ */
+public class UpdateEvents {
+
+	@Name("sporemodder.updater.Step")
+	@Label("Update Step")
+	@Description("A file extracted, or a registry merged or compacted, by the updater")
+	@Category({"SporeModder FX", "Updater"})
+	@StackTrace(false)
+	public static class StepEvent extends Event {
+		@Label("Phase")
+		public String phase;
+
+		@Label("Path")
+		@Description("Output file, relative to the SporeModder FX folder")
+		public String path;
+
+		@Label("Result")
+		public String result;
+
+		@Label("Bytes Read")
+		@DataAmount
+		public long bytesRead;
+
+		@Label("Bytes Written")
+		@DataAmount
+		public long bytesWritten;
+
+		@Label("Entries Parsed")
+		public long entriesParsed;
+
+		@Label("Entries Written")
+		public long entriesWritten;
+	}
+
+	@Name("sporemodder.updater.Phase")
+	@Label("Update Phase")
+	@Description("Totals of all the steps of a phase, committed when the update finishes")
+	@Category({"SporeModder FX", "Updater"})
+	@StackTrace(false)
+	public static class PhaseEvent extends Event {
+		@Label("Phase")
+		public String phase;
+
+		@Label("Steps")
+		public int steps;
+
+		@Label("Wall Time")
+		@Description("From the start of the first step to the end of the last one")
+		@Timespan
+		public long wallTime;
+
+		@Label("Step Time")
+		@Description("Sum of the durations of all the steps, which can run concurrently")
+		@Timespan
+		public long stepTime;
+
+		@Label("Bytes Read")
+		@DataAmount
+		public long bytesRead;
+
+		@Label("Bytes Written")
+		@DataAmount
+		public long bytesWritten;
+
+		@Label("Entries Parsed")
+		public long entriesParsed;
+
+		@Label("Entries Written")
+		public long entriesWritten;
+
+		@Label("Throughput")
+		@DataAmount
+		@Frequency
+		@Description("Bytes read and written per second of wall time")
+		public long throughput;
+	}
+}
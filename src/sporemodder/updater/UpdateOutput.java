@@ -0,0 +1,154 @@
+package sporemodder.updater;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the files of an update and makes them durable all at once when it finishes, instead of after every file.
+ * Files created here are preallocated to their final size when it is known (on NTFS, this allocates them in one
+ * piece without writing zeros), and are written through a {@link FileChannel} with a large buffer reused by each thread.
+ * Files written in other ways (like registries, which are appended to or replaced) must be registered with {@link #track(Path)}.
+ * <p>
+ * {@link #sync()} flushes the contents of every file to the disk, and then every folder that contains them, so that
+ * their names are durable too. Until then, a power loss can leave files empty or incomplete; this is why a
+ * {@link UpdateTransaction transactional} update syncs the staging folder before it replaces the installation.
+ * <p>
+ * This class is thread-safe.
+ */
+public class UpdateOutput {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+	private final Set<Path> files = ConcurrentHashMap.newKeySet();
+	private long syncedFiles;
+	private long syncedFolders;
+
+	/**
+	 * Creates a new file, replacing the existing one; it is never modified in place, as other files might be hard
+	 * links to it. It is registered to be synced.
+	 * @param path
+	 * @param size The final size of the file, or -1 if it is not known. If fewer bytes are written, the caller must
+	 * truncate the file.
+	 * @return The channel, positioned at the start of the file.
+	 * @throws IOException
+	 */
+	public FileChannel create(Path path, long size) throws IOException {
+		Files.deleteIfExists(path);
+		track(path);
+		// Files that are written at once don't need it
+		if (size <= BUFFER_SIZE) {
+			return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+		}
+		RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+		try {
+			file.setLength(size);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		return file.getChannel();
+	}
+
+	/**
+	 * Writes the contents of a stream into a new file, see {@link #create(Path, long)}.
+	 * @param input
+	 * @param path
+	 * @param size The expected size of the file, or -1 if it is not known.
+	 * @return How many bytes were written.
+	 * @throws IOException
+	 */
+	public long copy(InputStream input, Path path, long size) throws IOException {
+		ByteBuffer buffer = buffers.get();
+		ReadableByteChannel source = Channels.newChannel(input);
+		long written = 0;
+		try (FileChannel output = create(path, size)) {
+			buffer.clear();
+			while (source.read(buffer) != -1 || buffer.position() != 0) {
+				buffer.flip();
+				written += output.write(buffer);
+				buffer.compact();
+			}
+			if (written != size) {
+				output.truncate(written);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Registers a file written by the update, so that it is synced.
+	 * @param path
+	 */
+	public void track(Path path) {
+		files.add(path.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * Flushes all the registered files to the disk, and then all the folders that contain them. The files are
+	 * forgotten, so calling this again only syncs the files registered after it.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		Set<Path> folders = new LinkedHashSet<>();
+		for (Path file : files) {
+			// Files replaced by a newer one, or deleted, don't need to be synced
+			if (!Files.isRegularFile(file)) continue;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			folders.add(file.getParent());
+			++syncedFiles;
+		}
+		files.clear();
+		for (Path folder : folders) {
+			if (syncFolder(folder)) ++syncedFolders;
+		}
+	}
+
+	/**
+	 * Flushes a folder to the disk, so that the files created, renamed or deleted in it are durable.
+	 * Some platforms (like Windows) cannot open folders; their file systems already keep folders consistent.
+	 * @param folder
+	 * @return False if the platform cannot sync folders.
+	 * @throws IOException
+	 */
+	public static boolean syncFolder(Path folder) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(folder, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return false;
+		}
+		try {
+			channel.force(true);
+		} catch (IOException e) {
+			// Some file systems can't sync folders, but they can open them
+			return false;
+		} finally {
+			channel.close();
+		}
+		return true;
+	}
+
+	/** Returns how many files have been synced. */
+	public long getSyncedFiles() {
+		return syncedFiles;
+	}
+
+	/** Returns how many folders have been synced. */
+	public long getSyncedFolders() {
+		return syncedFolders;
+	}
+}
@@ -0,0 +1,90 @@
+package sporemodder.updater;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Defines all actions that must be taken to update the program, and how to start it afterwards.
+ * It is shared by the user interface ({@link UpdaterApp}) and the command line ({@link HeadlessUpdater}),
+ * so it must not use JavaFX.
+ */
+public class UpdatePlan {
+	
+	/** Name of the program jar, relative to SMFX base folder. */
+	public static final String PROGRAM_JAR = "SporeModderFX.jar";
+	
+	/** How many milliseconds the program should wait for SporeModderFX.jar to have closed. */
+	public static final int MAX_WAIT_TIME = 15000;
+	
+	/**
+	 * Most important function of the updater, declares all the actions that must be taken to update the program.
+	 * This does not execute them, it only adds them to the updater.
+	 * @param task
+	 * @throws IOException If the list of theme files cannot be read, see {@link ThemeManifest}.
+	 */
+	public static void setupTask(Updater task) throws IOException {
+		task.addFile("SporeModderFX.jar");
+		task.addFile("SporeModderFX.exe");
+		task.addFile("smfx.exe");
+		task.addFile("ModCreatorKit.sporemod");
+		task.addFile("advect.py");
+		task.addFile("smfx.sh");
+
+		task.addOptionalFile("EffectsEditor/main.pfx", buildPath("Effect Editor", "main.pfx"));
+		task.addOptionalFile("EffectsEditor/main.effdir", buildPath("Effect Editor", "main.effdir"));
+		
+		task.addFile("Documentation/type_names.txt", buildPath("Documentation", "type_names.txt"));
+		task.addFile("UIEditor/SporeUIDesignerProjectCustom.xml", buildPath("UI Editor", "SporeUIDesignerProjectCustom.xml"));
+		
+		// Every file of every theme, listed by the build so none can be missed
+		for (String file : ThemeManifest.read()) {
+			task.addFile(ThemeManifest.FOLDER + "/" + file, ThemeManifest.getOutputPath(file));
+		}
+		
+		task.modifyRegistry("reg_file.txt", "reg_file.txt");
+		task.modifyRegistry("reg_property.txt", "reg_property.txt");
+		task.forcedModifyRegistry("reg_type.txt", "reg_type.txt");
+		task.modifyRegistry("reg_type_noforce.txt", "reg_type.txt");
+		
+		task.addFile("reg_cnv.txt");
+	}
+	
+	/**
+	 * Builds a relative path joining the given strings, using the appropriate file separator character.
+	 * Not necessary for internal paths.
+	 * @param strings
+	 * @return
+	 */
+	private static String buildPath(String ... strings) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < strings.length; i++) {
+			if (i != 0) sb.append(File.separatorChar);
+			sb.append(strings[i]);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Waits until SporeModder FX has exited, see {@link ProgramWatcher}.
+	 * @param folder SMFX base folder.
+	 * @param pid The PID of SporeModder FX, or -1 if it is not known.
+	 * @return False if the program was still running after {@link #MAX_WAIT_TIME} milliseconds.
+	 */
+	public static boolean waitForProgram(File folder, long pid) {
+		return ProgramWatcher.waitForExit(pid, new File(folder, PROGRAM_JAR), MAX_WAIT_TIME);
+	}
+	
+	/**
+	 * Starts the updated program: the executable if it exists, otherwise the jar.
+	 * @param folder SMFX base folder.
+	 * @throws IOException
+	 */
+	public static void launchProgram(File folder) throws IOException {
+		File executable = new File(folder, "SporeModderFX.exe");
+		if (executable.exists()) {
+			Runtime.getRuntime().exec(new String[] {"cmd", "/c", executable.getAbsolutePath()});
+		} else {
+			Runtime.getRuntime().exec(new String[] {"java", "-jar", new File(folder, PROGRAM_JAR).getAbsolutePath()});
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package sporemodder.updater;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resources of the updater, read once and shared by many {@link Updater updaters}, so that updating many
+ * SporeModder FX folders in the same process (see {@link BatchUpdater}) does not decompress the resource pack and
+ * parse the input registries once per folder.
+ * <p>
+ * If the updater was packaged with a {@link ResourcePack}, all its entries are decompressed into memory when this is
+ * created; otherwise, files of the `resources` package are read the first time they are requested. Input registries
+ * are parsed (or loaded from their snapshots) the first time they are requested, and the same {@link NameRegistry}
+ * is then used by all updaters, so it must not be modified.
+ * <p>
+ * This class is thread-safe.
+ */
+public class UpdateResources {
+	/**
+	 * Reads an input registry, see {@link UpdateResources#getRegistry(String, RegistryLoader)}.
+	 */
+	public interface RegistryLoader {
+		public NameRegistry load(String internalPath) throws IOException;
+	}
+
+	/** Registries are loaded while holding the lock of their holder, so other registries can be loaded at the same time. */
+	private static class RegistryHolder {
+		NameRegistry registry;
+	}
+
+	private final List<ResourcePack.Entry> packEntries;
+	private final Map<String, byte[]> data = new HashMap<>();
+	private final Map<String, RegistryHolder> registries = new HashMap<>();
+
+	private UpdateResources(List<ResourcePack.Entry> packEntries) {
+		this.packEntries = packEntries;
+	}
+
+	/**
+	 * Reads the resources bundled with the updater.
+	 * @return
+	 * @throws IOException
+	 */
+	public static UpdateResources load() throws IOException {
+		try (ResourcePack pack = ResourcePack.open()) {
+			if (pack == null) {
+				return new UpdateResources(null);
+			}
+			UpdateResources resources = new UpdateResources(pack.getEntries());
+			// Entries with the same contents share the same array
+			Map<ResourcePack.Entry, ResourcePack.Entry> stored = ResourcePack.getStoredEntries(pack.getEntries());
+			for (ResourcePack.Entry entry : pack.getEntries()) {
+				ResourcePack.Entry storedEntry = stored.get(entry);
+				resources.data.put(entry.path, storedEntry == entry ? pack.read(entry) : resources.data.get(storedEntry.path));
+			}
+			return resources;
+		}
+	}
+
+	/**
+	 * Returns the entries of the resource pack, in the order they are stored, or null if the resources are not packed.
+	 * @return
+	 */
+	public List<ResourcePack.Entry> getPackEntries() {
+		return packEntries;
+	}
+
+	/**
+	 * Returns a new manifest of the resources; it is empty if they are not packed and have no manifest.
+	 * @return
+	 * @throws IOException
+	 */
+	public ResourceManifest getManifest() throws IOException {
+		ResourceManifest result = new ResourceManifest();
+		if (packEntries != null) {
+			for (ResourcePack.Entry entry : packEntries) {
+				result.add(new ResourceManifest.Entry(entry.path, entry.size, entry.sha256));
+			}
+			return result;
+		}
+		byte[] bytes = read(ResourceManifest.FILE_NAME);
+		if (bytes != null) {
+			result.read(new ByteArrayInputStream(bytes));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the contents of a file of the `resources` package, or null if it does not exist. The array is shared,
+	 * so it must not be modified.
+	 * @param internalPath Path to the file, relative to the `resources` package.
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized byte[] read(String internalPath) throws IOException {
+		byte[] bytes = data.get(internalPath);
+		if (bytes == null && packEntries == null && !data.containsKey(internalPath)) {
+			try (InputStream input = getClass().getResourceAsStream("/sporemodder/updater/resources/" + internalPath)) {
+				bytes = input == null ? null : input.readAllBytes();
+			}
+			data.put(internalPath, bytes);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns an input registry, loading it with the given loader the first time it is requested. The registry
+	 * is shared, so it must not be modified.
+	 * @param internalPath Path to the registry file, relative to the `resources` package.
+	 * @param loader
+	 * @return
+	 * @throws IOException
+	 */
+	public NameRegistry getRegistry(String internalPath, RegistryLoader loader) throws IOException {
+		RegistryHolder holder;
+		synchronized (registries) {
+			holder = registries.computeIfAbsent(internalPath, k -> new RegistryHolder());
+		}
+		synchronized (holder) {
+			if (holder.registry == null) {
+				holder.registry = loader.load(internalPath);
+			}
+			return holder.registry;
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package sporemodder.updater;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures an update: how long every step takes (staging, extracting a file, merging or compacting a registry) and
+ * how many bytes and entries it reads and writes, with totals per {@link Phase}. Every step and phase is also committed as
+ * a Java Flight Recorder event, see {@link UpdateEvents}; the totals can be saved as JSON with {@link #write(Path)}.
+ * <p>
+ * Steps can be measured from many threads at the same time, but a single step must only be used by one thread.
+ */
+public class UpdateTelemetry {
+
+	/** Only use the JFR events if the runtime has them; a custom runtime image might not include the module. */
+	private static final boolean JFR_AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+	public enum Phase {
+		/** Creating the staging folder of a transactional update, see {@link UpdateTransaction#stage()}. */
+		STAGE,
+		/** Extracting files from the resources, or patching them. */
+		EXTRACT,
+		/** Adding entries at the end of registries, see {@link Updater#modifyRegistry(String, String)}. */
+		APPEND,
+		/** Replacing entries of registries, see {@link Updater#forcedModifyRegistry(String, String)}. */
+		REPLACE,
+		/** Removing lines without effect from the registries, see {@link Updater#setCompactRegistries(boolean)}. */
+		COMPACT,
+		/** Flushing all the written files to the disk, see {@link UpdateOutput#sync()}. */
+		SYNC,
+		/** Replacing the installation with the staging folder of a transactional update, see {@link UpdateTransaction#commit()}. */
+		COMMIT,
+		/** Checking an installed file or registry without modifying it, see {@link Updater#verify()}. */
+		VERIFY;
+
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	public enum Result {
+		/** The file was written. */
+		WRITTEN,
+		/** The file was written by patching the installed version, see {@link DeltaPatch}. */
+		PATCHED,
+		/** The file was written as a hard link to another file with the same contents, see {@link Updater#setLinkDuplicates(boolean)}. */
+		LINKED,
+		/** The file was already installed, or the registry did not exist, so nothing was done. */
+		SKIPPED,
+		/** The file or registry was only checked; the result is in the {@link VerifyReport}. */
+		VERIFIED,
+		/** The step threw an exception. */
+		FAILED;
+
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/**
+	 * A single step of the update, that writes a single output file. The updater adds what it reads and writes
+	 * while the step runs.
+	 */
+	public static class Step {
+		public final Phase phase;
+		public final String path;
+		long startTime;
+		long endTime;
+		Result result = Result.WRITTEN;
+		long bytesRead;
+		long bytesWritten;
+		long entriesParsed;
+		long entriesWritten;
+		private Object event;
+
+		Step(Phase phase, String path) {
+			this.phase = phase;
+			this.path = path;
+		}
+
+		/** Returns how long the step took, in nanoseconds. */
+		public long getDuration() {
+			return endTime - startTime;
+		}
+
+		public Result getResult() {
+			return result;
+		}
+
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		/** Returns how many registry lines with an entry were parsed. */
+		public long getEntriesParsed() {
+			return entriesParsed;
+		}
+
+		/** Returns how many registry entries were written; when appending, how many lines were added to the registry. */
+		public long getEntriesWritten() {
+			return entriesWritten;
+		}
+	}
+
+	/**
+	 * The totals of all the steps of a phase.
+	 */
+	public static class PhaseSummary {
+		public final Phase phase;
+		/** How many steps there were, including the skipped ones. */
+		public final int steps;
+		public final int skippedSteps;
+		/** Nanoseconds from the start of the first step to the end of the last one. */
+		public final long wallTime;
+		/** Sum of the nanoseconds of every step; with more than one worker, it can be greater than the wall time. */
+		public final long stepTime;
+		public final long bytesRead;
+		public final long bytesWritten;
+		public final long entriesParsed;
+		public final long entriesWritten;
+
+		PhaseSummary(Phase phase, List<Step> steps) {
+			this.phase = phase;
+			this.steps = steps.size();
+			long firstStart = Long.MAX_VALUE;
+			long lastEnd = Long.MIN_VALUE;
+			int skippedSteps = 0;
+			long stepTime = 0, bytesRead = 0, bytesWritten = 0, entriesParsed = 0, entriesWritten = 0;
+			for (Step step : steps) {
+				firstStart = Math.min(firstStart, step.startTime);
+				lastEnd = Math.max(lastEnd, step.endTime);
+				if (step.result == Result.SKIPPED) skippedSteps++;
+				stepTime += step.getDuration();
+				bytesRead += step.bytesRead;
+				bytesWritten += step.bytesWritten;
+				entriesParsed += step.entriesParsed;
+				entriesWritten += step.entriesWritten;
+			}
+			this.skippedSteps = skippedSteps;
+			this.wallTime = steps.isEmpty() ? 0 : lastEnd - firstStart;
+			this.stepTime = stepTime;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.entriesParsed = entriesParsed;
+			this.entriesWritten = entriesWritten;
+		}
+
+		/** Returns the bytes read and written per second of wall time. */
+		public long getThroughput() {
+			return wallTime == 0 ? 0 : (long) ((bytesRead + bytesWritten) * 1e9 / wallTime);
+		}
+	}
+
+	private final Instant startInstant = Instant.now();
+	private final long startTime = System.nanoTime();
+	private long endTime;
+	private boolean succeeded;
+	private final List<Step> steps = new ArrayList<>();
+
+	/**
+	 * Starts measuring a step; it must be finished with {@link #end(Step)}, even if it fails.
+	 * @param phase
+	 * @param path Output file, relative to the SporeModder FX folder.
+	 * @return
+	 */
+	public Step begin(Phase phase, String path) {
+		Step step = new Step(phase, path);
+		if (JFR_AVAILABLE) {
+			UpdateEvents.StepEvent event = new UpdateEvents.StepEvent();
+			event.begin();
+			step.event = event;
+		}
+		step.startTime = System.nanoTime();
+		return step;
+	}
+
+	/**
+	 * Finishes measuring a step, adding it to the totals of its phase.
+	 * @param step
+	 */
+	public void end(Step step) {
+		step.endTime = System.nanoTime();
+		if (step.event != null) {
+			UpdateEvents.StepEvent event = (UpdateEvents.StepEvent) step.event;
+			if (event.shouldCommit()) {
+				event.phase = step.phase.getName();
+				event.path = step.path;
+				event.result = step.result.getName();
+				event.bytesRead = step.bytesRead;
+				event.bytesWritten = step.bytesWritten;
+				event.entriesParsed = step.entriesParsed;
+				event.entriesWritten = step.entriesWritten;
+				event.commit();
+			}
+			step.event = null;
+		}
+		synchronized (steps) {
+			steps.add(step);
+		}
+	}
+
+	/**
+	 * Called when the update finishes, it commits the events with the totals of every phase.
+	 * @param succeeded False if the update failed.
+	 */
+	public void finish(boolean succeeded) {
+		this.endTime = System.nanoTime();
+		this.succeeded = succeeded;
+		if (JFR_AVAILABLE) {
+			for (PhaseSummary summary : getPhases().values()) {
+				UpdateEvents.PhaseEvent event = new UpdateEvents.PhaseEvent();
+				if (!event.shouldCommit()) break;
+				event.phase = summary.phase.getName();
+				event.steps = summary.steps;
+				event.wallTime = summary.wallTime;
+				event.stepTime = summary.stepTime;
+				event.bytesRead = summary.bytesRead;
+				event.bytesWritten = summary.bytesWritten;
+				event.entriesParsed = summary.entriesParsed;
+				event.entriesWritten = summary.entriesWritten;
+				event.throughput = summary.getThroughput();
+				event.commit();
+			}
+		}
+	}
+
+	/** Returns how long the update took, in nanoseconds, or how long it has been running if it did not finish. */
+	public long getDuration() {
+		return (endTime != 0 ? endTime : System.nanoTime()) - startTime;
+	}
+
+	/** Returns all the finished steps, in the order they finished. */
+	public List<Step> getSteps() {
+		synchronized (steps) {
+			return new ArrayList<>(steps);
+		}
+	}
+
+	/** Returns the totals of every phase that had any step, in the order they are executed. */
+	public Map<Phase, PhaseSummary> getPhases() {
+		Map<Phase, List<Step>> phaseSteps = new EnumMap<>(Phase.class);
+		for (Step step : getSteps()) {
+			phaseSteps.computeIfAbsent(step.phase, k -> new ArrayList<>()).add(step);
+		}
+		Map<Phase, PhaseSummary> phases = new EnumMap<>(Phase.class);
+		for (Map.Entry<Phase, List<Step>> entry : phaseSteps.entrySet()) {
+			phases.put(entry.getKey(), new PhaseSummary(entry.getKey(), entry.getValue()));
+		}
+		return phases;
+	}
+
+	/**
+	 * Writes the totals of the update, of every phase and of every step as a JSON object. Times are in milliseconds.
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(Path output) throws IOException {
+		List<Step> steps = getSteps();
+		Map<Phase, PhaseSummary> phases = getPhases();
+		long bytesRead = 0, bytesWritten = 0, entriesParsed = 0, entriesWritten = 0;
+		for (PhaseSummary summary : phases.values()) {
+			bytesRead += summary.bytesRead;
+			bytesWritten += summary.bytesWritten;
+			entriesParsed += summary.entriesParsed;
+			entriesWritten += summary.entriesWritten;
+		}
+
+		try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			writer.write("{\n");
+			writer.write("  \"start\": " + quote(startInstant.toString()) + ",\n");
+			writer.write("  \"succeeded\": " + succeeded + ",\n");
+			writer.write("  \"time\": " + millis(getDuration()) + ",\n");
+			writer.write("  \"bytesRead\": " + bytesRead + ",\n");
+			writer.write("  \"bytesWritten\": " + bytesWritten + ",\n");
+			writer.write("  \"entriesParsed\": " + entriesParsed + ",\n");
+			writer.write("  \"entriesWritten\": " + entriesWritten + ",\n");
+
+			writer.write("  \"phases\": [");
+			String separator = "\n";
+			for (PhaseSummary summary : phases.values()) {
+				writer.write(separator);
+				writer.write("    {\"phase\": " + quote(summary.phase.getName()) + ", \"steps\": " + summary.steps
+						+ ", \"skippedSteps\": " + summary.skippedSteps
+						+ ", \"wallTime\": " + millis(summary.wallTime) + ", \"stepTime\": " + millis(summary.stepTime)
+						+ ", \"bytesRead\": " + summary.bytesRead + ", \"bytesWritten\": " + summary.bytesWritten
+						+ ", \"entriesParsed\": " + summary.entriesParsed + ", \"entriesWritten\": " + summary.entriesWritten
+						+ ", \"bytesPerSecond\": " + summary.getThroughput() + "}");
+				separator = ",\n";
+			}
+			writer.write(phases.isEmpty() ? "],\n" : "\n  ],\n");
+
+			writer.write("  \"steps\": [");
+			separator = "\n";
+			for (Step step : steps) {
+				writer.write(separator);
+				writer.write("    {\"phase\": " + quote(step.phase.getName()) + ", \"path\": " + quote(step.path)
+						+ ", \"result\": " + quote(step.result.getName())
+						+ ", \"start\": " + millis(step.startTime - startTime) + ", \"time\": " + millis(step.getDuration())
+						+ ", \"bytesRead\": " + step.bytesRead + ", \"bytesWritten\": " + step.bytesWritten
+						+ ", \"entriesParsed\": " + step.entriesParsed + ", \"entriesWritten\": " + step.entriesWritten + "}");
+				separator = ",\n";
+			}
+			writer.write(steps.isEmpty() ? "]\n" : "\n  ]\n");
+			writer.write("}\n");
+		}
+	}
+
+	static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	static String quote(String text) {
+		StringBuilder sb = new StringBuilder(text.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,271 @@
+package sporemodder.updater;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes an update all or nothing. The update is applied to a staging folder next to the SporeModder FX folder,
+ * <code>&lt;folder&gt;.staging</code>, which starts as a copy of it made of hard links: creating it writes no file
+ * contents, and unchanged files use no extra disk space. When the update finishes, the two folders are swapped
+ * with atomic renames; the old version is kept as <code>&lt;folder&gt;.previous</code>, so that {@link #rollback(File)}
+ * can restore it instantly. If the update fails, the staging folder is deleted and the installation is not modified.
+ * <p>
+ * Files of the staging folder are shared with the installed ones until they are written, so they must never be
+ * modified in place: files that are replaced are written into a new file and moved over the old one, and files that
+ * are modified are first separated with {@link #unlink(Path, boolean)}. The previous version keeps sharing the files
+ * that the update did not change with the new one.
+ * <p>
+ * If the file system does not support hard links, the files are copied instead. The folder must not be in use
+ * by another program (including as its working directory), otherwise it cannot be renamed and the update fails
+ * without modifying it.
+ */
+public class UpdateTransaction {
+
+	/** Suffix of the folder, next to SMFX base folder, where the update is staged. */
+	public static final String STAGING_SUFFIX = ".staging";
+	/** Suffix of the folder, next to SMFX base folder, where the version before the last update is kept. */
+	public static final String PREVIOUS_SUFFIX = ".previous";
+	/** Suffix of the folder used while a rollback swaps the current and previous versions. */
+	private static final String ROLLBACK_SUFFIX = ".rollback";
+
+	private final Path folder;
+	private final Path staging;
+	private final Path previous;
+	// Staged files that are still hard links to the installed ones
+	private final Set<Path> linked = ConcurrentHashMap.newKeySet();
+	private boolean linksSupported = true;
+	private long linkedFiles;
+	private long copiedFiles;
+	private long copiedBytes;
+
+	/**
+	 * Prepares a transaction for the given SporeModder FX folder; nothing is done until {@link #stage()} is called.
+	 * @param folder
+	 */
+	public UpdateTransaction(File folder) {
+		this.folder = folder.getAbsoluteFile().toPath().normalize();
+		if (this.folder.getParent() == null) {
+			throw new IllegalArgumentException("Cannot stage an update of a root folder: " + this.folder);
+		}
+		this.staging = sibling(this.folder, STAGING_SUFFIX);
+		this.previous = sibling(this.folder, PREVIOUS_SUFFIX);
+	}
+
+	private static Path sibling(Path folder, String suffix) {
+		return folder.resolveSibling(folder.getFileName() + suffix);
+	}
+
+	/** Returns the folder where the update must be applied, once it has been staged. */
+	public File getStagingFolder() {
+		return staging.toFile();
+	}
+
+	/** Returns how many files were staged as hard links. */
+	public long getLinkedFiles() {
+		return linkedFiles;
+	}
+
+	/** Returns how many files had to be copied to stage them, because hard links were not supported. */
+	public long getCopiedFiles() {
+		return copiedFiles;
+	}
+
+	/** Returns the size of the files that had to be copied to stage them. */
+	public long getCopiedBytes() {
+		return copiedBytes;
+	}
+
+	/**
+	 * Creates the staging folder, with the same files as the SporeModder FX folder. A staging folder left by an
+	 * update that did not finish is deleted first.
+	 * @return The staging folder.
+	 * @throws IOException
+	 */
+	public File stage() throws IOException {
+		recover(folder.toFile());
+		if (!Files.isDirectory(folder)) {
+			throw new NoSuchFileException(folder.toString());
+		}
+		deleteTree(staging);
+
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectory(staging.resolve(folder.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Path target = staging.resolve(folder.relativize(file));
+				if (attrs.isRegularFile() && linksSupported) {
+					try {
+						Files.createLink(target, file);
+						linked.add(target);
+						++linkedFiles;
+						return FileVisitResult.CONTINUE;
+					} catch (UnsupportedOperationException | FileSystemException e) {
+						// Copy this and all the remaining files
+						linksSupported = false;
+					}
+				}
+				Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+				++copiedFiles;
+				copiedBytes += attrs.size();
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return staging.toFile();
+	}
+
+	/**
+	 * Must be called before modifying a staged file in place, so the installed file is not modified too.
+	 * If the file is still shared with the installation, it is replaced by a copy, or just deleted if its
+	 * current contents are not needed; otherwise nothing is done.
+	 * @param file A file of the staging folder.
+	 * @param keepContents True if the file will be modified (for example, appending to it), false if it will be rewritten.
+	 * @throws IOException
+	 */
+	public void unlink(Path file, boolean keepContents) throws IOException {
+		file = file.toAbsolutePath().normalize();
+		if (!linked.remove(file)) return;
+
+		if (keepContents) {
+			Path tempPath = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.copy(file, tempPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			// Renaming over a hard link replaces only that name, the installed file keeps its contents
+			Files.move(tempPath, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} else {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Replaces the SporeModder FX folder with the staging folder. The installed version is kept as the previous
+	 * version, replacing the one kept by the last update. If the folders cannot be swapped, the installation
+	 * is not modified.
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		deleteTree(previous);
+		Files.move(folder, previous, StandardCopyOption.ATOMIC_MOVE);
+		try {
+			Files.move(staging, folder, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			try {
+				Files.move(previous, folder, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e1) {
+				e.addSuppressed(e1);
+			}
+			throw e;
+		}
+		linked.clear();
+	}
+
+	/**
+	 * Discards the update, deleting the staging folder. The installation is not modified.
+	 * @throws IOException
+	 */
+	public void abort() throws IOException {
+		linked.clear();
+		deleteTree(staging);
+	}
+
+	/**
+	 * Returns true if there is a previous version of the given SporeModder FX folder that can be restored.
+	 * @param folder
+	 * @return
+	 */
+	public static boolean canRollback(File folder) {
+		return Files.isDirectory(sibling(folder.getAbsoluteFile().toPath().normalize(), PREVIOUS_SUFFIX));
+	}
+
+	/**
+	 * Restores the version of SporeModder FX that was installed before the last transactional update. The two
+	 * versions are swapped, so the updated one becomes the previous version, and calling this again undoes it.
+	 * Changes made to the folder after the update are kept in the previous version.
+	 * @param folder The SporeModder FX folder.
+	 * @throws IOException If there is no previous version, or the folders cannot be renamed.
+	 */
+	public static void rollback(File folder) throws IOException {
+		recover(folder);
+		Path current = folder.getAbsoluteFile().toPath().normalize();
+		Path previous = sibling(current, PREVIOUS_SUFFIX);
+		Path temp = sibling(current, ROLLBACK_SUFFIX);
+		if (!Files.isDirectory(previous)) {
+			throw new NoSuchFileException(previous.toString(), null, "There is no previous version");
+		}
+
+		Files.move(current, temp, StandardCopyOption.ATOMIC_MOVE);
+		try {
+			Files.move(previous, current, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			try {
+				Files.move(temp, current, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e1) {
+				e.addSuppressed(e1);
+			}
+			throw e;
+		}
+		Files.move(temp, previous, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Finishes a commit or a rollback that was interrupted between two renames, for example because the
+	 * computer was turned off, so that the SporeModder FX folder exists again. Does nothing if none was interrupted.
+	 * @param folder The SporeModder FX folder.
+	 * @throws IOException
+	 */
+	public static void recover(File folder) throws IOException {
+		Path current = folder.getAbsoluteFile().toPath().normalize();
+		Path staging = sibling(current, STAGING_SUFFIX);
+		Path previous = sibling(current, PREVIOUS_SUFFIX);
+		Path temp = sibling(current, ROLLBACK_SUFFIX);
+
+		if (!Files.exists(current)) {
+			if (Files.isDirectory(temp) && Files.isDirectory(previous)) {
+				// The current version was moved away by a rollback, restore the previous one
+				Files.move(previous, current, StandardCopyOption.ATOMIC_MOVE);
+			}
+			else if (Files.isDirectory(staging) && Files.isDirectory(previous)) {
+				// The staging folder is only renamed once the update finished, so the commit can be completed
+				Files.move(staging, current, StandardCopyOption.ATOMIC_MOVE);
+			}
+			else if (Files.isDirectory(previous)) {
+				Files.move(previous, current, StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+		if (Files.isDirectory(temp) && !Files.exists(previous)) {
+			Files.move(temp, previous, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	private static void deleteTree(Path root) throws IOException {
+		if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) return;
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				if (exc != null) throw exc;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,1527 @@
+package sporemodder.updater;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes all the updating subtasks:
+ * - `addFile`: Extracting mandatory files (they are always extracted).
+ * - `addOptionalFile`: Extracting optional files (they are only extracted if they didn't exist in the destination folder).
+ * - `modifyRegistry`: Adding entries into a name registry.
+ * - `forcedModifyRegistry`: Replacing entries of a name registry.
+ * - Optionally, compacting the modified registries, see {@link #setCompactRegistries(boolean)}.
+ * Subtasks that write different files are executed concurrently; the ones that write the same file
+ * are executed in the order above. If the updater was packaged with a {@link ResourcePack}, all files are
+ * extracted first, one after another, while the pack is decompressed; files with a {@link DeltaPatch} for the
+ * installed version are patched instead.
+ * <p>
+ * In {@link #setTransactional(boolean) transactional} mode, the update is applied to a copy of the folder made
+ * of hard links, which replaces it only if everything succeeded; see {@link UpdateTransaction}.
+ * <p>
+ * Registries only get the entries released after the version of the installation, see {@link RegistryChain};
+ * the version is written into the installation when the update finishes.
+ * <p>
+ * Written files are flushed to the disk all together at the end, before a transactional update replaces the
+ * installation, see {@link #setDurable(boolean)} and {@link UpdateOutput}.
+ * <p>
+ * {@link #verify()} checks an installation against the same subtasks without modifying it, and
+ * {@link #repair(VerifyReport)} then only updates what is missing, different or outdated.
+ * <p>
+ * Every subtask is measured by an {@link UpdateTelemetry}; progress is reported in bytes, the size of the files
+ * each subtask extracts or modifies, and at most once every {@link #setProgressInterval(long) progress interval}.
+ * <p>
+ * This class does not depend on JavaFX, so it can be used without the user interface; {@link UpdateTask}
+ * runs it as a JavaFX task.
+ */
+public class Updater implements Callable<Void> {
+	
+	/** System property that sets the default number of worker threads. */
+	public static final String WORKERS_PROPERTY = "sporemodder.updater.workers";
+	/** Folder, relative to SMFX base folder, where the updater keeps the indices of the installed registries. */
+	public static final String INDEX_FOLDER = ".updater";
+	/** System property that, if true, writes the telemetry of every update into {@link #SUMMARY_FILE}. */
+	public static final String SUMMARY_PROPERTY = "sporemodder.updater.summary";
+	/** File, relative to SMFX base folder, where the telemetry of the update is written if requested. */
+	public static final String SUMMARY_FILE = INDEX_FOLDER + "/last-update.json";
+	/** File, relative to SMFX base folder, where the report of {@link #verify()} is written by the command line. */
+	public static final String VERIFY_FILE = INDEX_FOLDER + "/last-verify.json";
+	/** System property that sets whether updates are transactional by default. */
+	public static final String TRANSACTIONAL_PROPERTY = "sporemodder.updater.transactional";
+	/** System property that sets whether updates flush the written files to the disk by default. */
+	public static final String DURABLE_PROPERTY = "sporemodder.updater.durable";
+	/** System property that sets whether files with the same contents are written as hard links by default. */
+	public static final String LINK_DUPLICATES_PROPERTY = "sporemodder.updater.linkDuplicates";
+	
+	private class FileEntry {
+		String internalName;
+		String outputName;
+		boolean optional;
+	}
+	
+	private class RegistryEntry {
+		String internalName;
+		String outputName;
+	}
+	
+	/**
+	 * Receives the progress of the update. It can be called from any thread.
+	 */
+	public interface Listener {
+		/**
+		 * Called when subtasks finish, but not more often than the progress interval; it is always called when
+		 * the last one finishes. Every subtask counts as the size of the files it reads or writes.
+		 * @param done How many bytes have been processed.
+		 * @param total How many bytes there are in total.
+		 */
+		void progress(long done, long total);
+		
+		/**
+		 * Called with a summary of the update, when it finishes.
+		 * @param message
+		 */
+		void message(String message);
+	}
+	
+	private interface JobAction {
+		void run(RegistryCodec codec, UpdateTelemetry.Step step) throws Exception;
+	}
+	
+	/** A single step of the update, that writes a single output file. */
+	private static class Job {
+		final UpdateTelemetry.Phase phase;
+		final String outputName;
+		final long weight;
+		final JobAction action;
+		
+		Job(UpdateTelemetry.Phase phase, String outputName, long weight, JobAction action) {
+			this.phase = phase;
+			this.outputName = outputName;
+			this.weight = weight;
+			this.action = action;
+		}
+	}
+	
+	private final File destFolder;
+	// The folder where files are written: the destination folder, or the staging folder of the transaction
+	private File workFolder;
+	private Listener listener;
+	private final List<FileEntry> fileMap = new ArrayList<>();
+	
+	private final List<RegistryEntry> registries = new ArrayList<>();
+	// The entries here are always replaced
+	private final List<RegistryEntry> forcedRegistries = new ArrayList<>();
+	
+	private int workerCount = Integer.getInteger(WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors());
+	private boolean compactRegistries;
+	private long progressInterval = 50;
+	private File summaryFile;
+	private boolean transactional = Boolean.getBoolean(TRANSACTIONAL_PROPERTY);
+	private boolean linkDuplicates = Boolean.parseBoolean(System.getProperty(LINK_DUPLICATES_PROPERTY, "true"));
+	private boolean durable = Boolean.parseBoolean(System.getProperty(DURABLE_PROPERTY, "true"));
+	// Resources shared with other updaters, or null to read them only for this one
+	private UpdateResources resources;
+	
+	// Files that are already installed with the same contents are not extracted again
+	private ResourceManifest manifest;
+	// Pack entries needed by the registry subtasks, which run after the pack has been read
+	private final Map<String, byte[]> unpackedResources = new HashMap<>();
+	// Registries only get the patches released after the version in the stamp of the installation
+	private RegistryChain chain;
+	private String installedVersion;
+	private final AtomicLong writtenFiles = new AtomicLong();
+	private final AtomicLong writtenBytes = new AtomicLong();
+	private final AtomicLong patchedFiles = new AtomicLong();
+	private final AtomicLong linkedFiles = new AtomicLong();
+	private final AtomicLong skippedFiles = new AtomicLong();
+	private final AtomicLong skippedBytes = new AtomicLong();
+	private final AtomicLong compactedLines = new AtomicLong();
+	private final AtomicLong compactedBytes = new AtomicLong();
+	
+	private UpdateTelemetry telemetry;
+	private UpdateTransaction transaction;
+	private UpdateOutput output;
+	// The problems that are repaired, or null to update everything
+	private VerifyReport repairing;
+	private long progressTotal;
+	private final AtomicLong progressDone = new AtomicLong();
+	private final AtomicLong lastProgressTime = new AtomicLong();
+	
+	/**
+	 * Initializes an updater, where files will be extracted and modified relative
+	 * to the given `destFolder`, which should be the base SporeModder FX folder.
+	 * @param destFolder
+	 */
+	public Updater(File destFolder) {
+		this.destFolder = destFolder;
+		if (Boolean.getBoolean(SUMMARY_PROPERTY)) {
+			summaryFile = new File(destFolder, SUMMARY_FILE);
+		}
+	}
+	
+	public File getDestFolder() {
+		return destFolder;
+	}
+	
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Extracts the file `path` into the same path relative to the SMFX folder,
+	 * replacing the file if it already existed.
+	 * @param path Path to the source file, relative to the `resources` package, 
+	 * and also path to the destination file, relative to SMFX base folder.
+	 */
+	public void addFile(String path) {
+		addFile(path, path);
+	}
+	
+	/**
+	 * Extracts the file `internalName` into `outputPath`, replacing the file if it already existed.
+	 * @param internalPath Path to the source file, relative to the `resources` package.
+	 * @param outputPath Path to the destination file, relative to SMFX base folder.
+	 */
+	public void addFile(String internalPath, String outputPath) {
+		FileEntry entry = new FileEntry();
+		entry.internalName = internalPath;
+		entry.outputName = outputPath;
+		entry.optional = false;
+		fileMap.add(entry);
+	}
+	
+	/**
+	 * Extracts the file `internalName` into `outputPath`, only if `outputPath` does not exist yet.
+	 * If the output file already exists, nothing happens.
+	 * @param internalName Path to the source file, relative to the `resources` package.
+	 * @param outputPath Path to the destination file, relative to SMFX base folder.
+	 */
+	public void addOptionalFile(String internalName, String outputPath) {
+		FileEntry entry = new FileEntry();
+		entry.internalName = internalName;
+		entry.outputName = outputPath;
+		entry.optional = true;
+		fileMap.add(entry);
+	}
+	
+	/**
+	 * Adds all the entries of the file `internalName` to the registry file `outputPath`.
+	 * All entries are added to the end of the file, no other modifications are done.
+	 * If the installation has a version stamp, only the patches of newer versions are added, see {@link RegistryChain}.
+	 * @param internalPath Path to the source file, relative to the `resources` package.
+	 * @param outputPath Path to the destination file, relative to SMFX base folder.
+	 */
+	public void modifyRegistry(String internalPath, String outputPath) {
+		RegistryEntry entry = new RegistryEntry();
+		entry.internalName = internalPath;
+		entry.outputName = outputPath;
+		registries.add(entry);
+	}
+	
+	/**
+	 * Adds all entries of the file `internalName` to the registry file `outputPath`,
+	 * REPLACING existing entries if there are collisions. That is: if any new entry already had 
+	 * its hash or its name in the file, the old value will be deleted and replaced with the new one.
+	 * @param internalPath Path to the source file, relative to the `resources` package.
+	 * @param outputPath Path to the destination file, relative to SMFX base folder.
+	 */
+	public void forcedModifyRegistry(String internalPath, String outputPath) {
+		RegistryEntry entry = new RegistryEntry();
+		entry.internalName = internalPath;
+		entry.outputName = outputPath;
+		forcedRegistries.add(entry);
+	}
+	
+	/**
+	 * Sets how many threads are used to extract files and modify registries. Jobs that write the same file are
+	 * always executed in order; with 1 worker, all jobs are executed one after another in the calling thread.
+	 * By default, it uses the system property `sporemodder.updater.workers`, or the number of processors.
+	 * @param workerCount
+	 */
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+	
+	public int getWorkerCount() {
+		return workerCount;
+	}
+	
+	/**
+	 * If true, after modifying the registries their lines that have no effect are removed, so that they are not
+	 * read every time the program starts; see {@link RegistryCodec#compact(Path)}. It is false by default.
+	 * @param compactRegistries
+	 */
+	public void setCompactRegistries(boolean compactRegistries) {
+		this.compactRegistries = compactRegistries;
+	}
+	
+	public boolean getCompactRegistries() {
+		return compactRegistries;
+	}
+	
+	/**
+	 * Sets the minimum time between two progress reports, so that a user interface is not flooded when many
+	 * small files are extracted. It is 50 milliseconds by default; 0 reports every subtask.
+	 * @param milliseconds
+	 */
+	public void setProgressInterval(long milliseconds) {
+		this.progressInterval = milliseconds;
+	}
+	
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+	
+	/**
+	 * Sets a file where the telemetry of the update is written as JSON when it finishes, even if it fails;
+	 * see {@link UpdateTelemetry#write(Path)}. It is null by default, unless the system property 
+	 * `sporemodder.updater.summary` is true, which uses {@link #SUMMARY_FILE}.
+	 * @param summaryFile
+	 */
+	public void setSummaryFile(File summaryFile) {
+		this.summaryFile = summaryFile;
+	}
+	
+	public File getSummaryFile() {
+		return summaryFile;
+	}
+	
+	/**
+	 * If true, the update is staged in a folder next to the destination folder, and only replaces it if all the
+	 * subtasks succeed; if any fails, the destination folder is not modified. The replaced version is kept, so it
+	 * can be restored with {@link UpdateTransaction#rollback(File)}. By default, it uses the system property 
+	 * `sporemodder.updater.transactional`, or false.
+	 * @param transactional
+	 */
+	public void setTransactional(boolean transactional) {
+		this.transactional = transactional;
+	}
+	
+	public boolean isTransactional() {
+		return transactional;
+	}
+	
+	/**
+	 * If true, all the written files are flushed to the disk when the update finishes, so a power loss after that
+	 * cannot lose them; in transactional mode, before the installation is replaced. They are flushed together
+	 * instead of one by one, see {@link UpdateOutput}. By default, it uses the system property 
+	 * `sporemodder.updater.durable`, or true.
+	 * @param durable
+	 */
+	public void setDurable(boolean durable) {
+		this.durable = durable;
+	}
+	
+	public boolean isDurable() {
+		return durable;
+	}
+	
+	/**
+	 * If true, files of the resource pack that have the same contents (like images shared by the themes) are only
+	 * written once, and the other copies are hard links to it; otherwise, or if the file system does not support
+	 * hard links, they are copied. Note that a program that modifies one of the files in place modifies all of them.
+	 * By default, it uses the system property `sporemodder.updater.linkDuplicates`, or true.
+	 * @param linkDuplicates
+	 */
+	public void setLinkDuplicates(boolean linkDuplicates) {
+		this.linkDuplicates = linkDuplicates;
+	}
+	
+	public boolean getLinkDuplicates() {
+		return linkDuplicates;
+	}
+	
+	/**
+	 * Sets resources shared with other updaters, so that the resource pack is decompressed and the input registries
+	 * are parsed only once; see {@link BatchUpdater}. If it is null (the default), the updater reads them itself,
+	 * streaming the files of the pack directly into their destination.
+	 * @param resources
+	 */
+	public void setResources(UpdateResources resources) {
+		this.resources = resources;
+	}
+	
+	public UpdateResources getResources() {
+		return resources;
+	}
+	
+	/** Returns the measurements of the last update, or null if it has not been started. */
+	public UpdateTelemetry getTelemetry() {
+		return telemetry;
+	}
+	
+	/** Returns how many files have been extracted. */
+	public long getWrittenFiles() {
+		return writtenFiles.get();
+	}
+	
+	/** Returns how many bytes have been extracted. */
+	public long getWrittenBytes() {
+		return writtenBytes.get();
+	}
+	
+	/** Returns how many of the extracted files were written by patching the installed version, see {@link DeltaPatch}. */
+	public long getPatchedFiles() {
+		return patchedFiles.get();
+	}
+	
+	/** Returns how many of the extracted files were written as a hard link to another one, see {@link #setLinkDuplicates(boolean)}. */
+	public long getLinkedFiles() {
+		return linkedFiles.get();
+	}
+	
+	/** Returns how many files were not extracted, because they were already installed or are optional and existed. */
+	public long getSkippedFiles() {
+		return skippedFiles.get();
+	}
+	
+	/** Returns the size of the files that were not extracted. */
+	public long getSkippedBytes() {
+		return skippedBytes.get();
+	}
+	
+	/** Returns how many lines were removed when compacting the registries. */
+	public long getCompactedLines() {
+		return compactedLines.get();
+	}
+	
+	/** Returns how many bytes were removed when compacting the registries. */
+	public long getCompactedBytes() {
+		return compactedBytes.get();
+	}
+	
+	/**
+	 * Returns an input stream for a file stored in the `resources` package.
+	 * @param internalPath Path to the source file, relative to the `resources` package.
+	 * @return
+	 */
+	private InputStream getInternalStream(String internalPath) throws IOException {
+		byte[] data = unpackedResources.get(internalPath);
+		if (data == null && resources != null) {
+			data = resources.read(internalPath);
+		}
+		if (data != null) {
+			return new ByteArrayInputStream(data);
+		}
+		return getClass().getResourceAsStream("/sporemodder/updater/resources/" + internalPath);
+	}
+
+	/**
+	 * Reads a registry stored in the `resources` package. If the build generated a snapshot for it
+	 * and the snapshot is up to date, the registry is loaded from it instead of parsing the text.
+	 * @param internalPath Path to the registry file, relative to the `resources` package.
+	 * @param codec
+	 * @param step Where the bytes read from the snapshot are added; the text parsed by the codec is counted by it.
+	 * @return
+	 * @throws IOException
+	 */
+	private NameRegistry readInternalRegistry(String internalPath, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		if (resources != null) {
+			// Only the first updater that needs it reads it, so only its step counts it
+			return resources.getRegistry(internalPath, path -> loadInternalRegistry(path, codec, step));
+		}
+		return loadInternalRegistry(internalPath, codec, step);
+	}
+	
+	/**
+	 * Reads many registries stored in the `resources` package into a single one, in order, so entries of later
+	 * registries replace the ones of earlier registries.
+	 * @param internalPaths Paths to the registry files, relative to the `resources` package.
+	 * @param codec
+	 * @param step
+	 * @return
+	 * @throws IOException
+	 */
+	private NameRegistry readInternalRegistry(List<String> internalPaths, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		if (internalPaths.size() == 1) {
+			return readInternalRegistry(internalPaths.get(0), codec, step);
+		}
+		if (resources != null) {
+			// Installations of the same version need the same patches, so they share the merged registry
+			return resources.getRegistry(String.join("\n", internalPaths), key -> loadInternalRegistry(internalPaths, codec, step));
+		}
+		return loadInternalRegistry(internalPaths, codec, step);
+	}
+	
+	private NameRegistry loadInternalRegistry(List<String> internalPaths, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		NameRegistry registry = loadInternalRegistry(internalPaths.get(0), codec, step);
+		for (String internalPath : internalPaths.subList(1, internalPaths.size())) {
+			try (InputStream input = getInternalStream(internalPath)) {
+				codec.read(input, registry);
+			}
+		}
+		return registry;
+	}
+	
+	private NameRegistry loadInternalRegistry(String internalPath, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		byte[] text;
+		try (InputStream input = getInternalStream(internalPath)) {
+			text = input.readAllBytes();
+		}
+		try (InputStream input = getInternalStream(internalPath + RegistrySnapshot.EXTENSION)) {
+			if (input != null) {
+				byte[] snapshotData = input.readAllBytes();
+				RegistrySnapshot snapshot = new RegistrySnapshot(ByteBuffer.wrap(snapshotData));
+				if (snapshot.matches(text)) {
+					step.bytesRead += text.length + snapshotData.length;
+					return snapshot.toRegistry();
+				}
+			}
+		} catch (IOException e) {
+			// The snapshot is just a cache, parse the text instead
+		}
+		NameRegistry registry = new NameRegistry();
+		codec.read(new ByteArrayInputStream(text), registry);
+		return registry;
+	}
+
+	/**
+	 * Returns true if a file exists in the `resources` package.
+	 * @param internalPath Path to the file, relative to the `resources` package.
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean hasInternalResource(String internalPath) throws IOException {
+		if (unpackedResources.containsKey(internalPath) || (resources != null && resources.read(internalPath) != null)) {
+			return true;
+		}
+		return getClass().getResource("/sporemodder/updater/resources/" + internalPath) != null;
+	}
+
+	/**
+	 * Reads the manifest of the resources when they are not packed; if there is none, all files are extracted.
+	 * @return
+	 * @throws IOException
+	 */
+	private ResourceManifest readManifest() throws IOException {
+		ResourceManifest manifest = new ResourceManifest();
+		InputStream input = getInternalStream(ResourceManifest.FILE_NAME);
+		if (input != null) {
+			manifest.read(input);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Executes all the subtasks. It stops at the first one that fails.
+	 */
+	@Override
+	public Void call() throws Exception {
+		telemetry = new UpdateTelemetry();
+		transaction = null;
+		output = new UpdateOutput();
+		workFolder = destFolder;
+		boolean succeeded = false;
+		try {
+			if (transactional) {
+				transaction = new UpdateTransaction(destFolder);
+				UpdateTelemetry.Step step = telemetry.begin(UpdateTelemetry.Phase.STAGE, destFolder.getName());
+				try {
+					workFolder = transaction.stage();
+					step.bytesWritten = transaction.getCopiedBytes();
+				} catch (IOException e) {
+					step.result = UpdateTelemetry.Result.FAILED;
+					throw e;
+				} finally {
+					telemetry.end(step);
+				}
+			}
+			update();
+			if (durable) {
+				UpdateTelemetry.Step step = telemetry.begin(UpdateTelemetry.Phase.SYNC, destFolder.getName());
+				try {
+					output.sync();
+				} catch (IOException e) {
+					step.result = UpdateTelemetry.Result.FAILED;
+					throw e;
+				} finally {
+					telemetry.end(step);
+				}
+			}
+			if (transaction != null) {
+				UpdateTelemetry.Step step = telemetry.begin(UpdateTelemetry.Phase.COMMIT, destFolder.getName());
+				try {
+					transaction.commit();
+					if (durable) {
+						// The renames of the folders
+						UpdateOutput.syncFolder(destFolder.getAbsoluteFile().toPath().getParent());
+					}
+				} catch (IOException e) {
+					step.result = UpdateTelemetry.Result.FAILED;
+					throw e;
+				} finally {
+					telemetry.end(step);
+				}
+				workFolder = destFolder;
+			}
+			succeeded = true;
+		} finally {
+			if (transaction != null && !succeeded) {
+				abortTransaction();
+			}
+			telemetry.finish(succeeded);
+			if (summaryFile != null) {
+				writeTelemetry(succeeded);
+			}
+		}
+		updateSummary();
+		return null;
+	}
+	
+	/**
+	 * Checks the installation without modifying it: every file is hashed and compared with the resources, and every
+	 * registry is checked to have all the entries of its inputs, including all the patches of the {@link RegistryChain}
+	 * whatever the installed version is. Files and registries are checked concurrently by the
+	 * {@link #setWorkerCount(int) workers}, the largest first. Progress is reported in bytes, like an update.
+	 * @return The status of every file and registry, see {@link #repair(VerifyReport)}.
+	 * @throws Exception If the resources or the installation cannot be read.
+	 */
+	public VerifyReport verify() throws Exception {
+		telemetry = new UpdateTelemetry();
+		transaction = null;
+		workFolder = destFolder;
+		VerifyReport report = new VerifyReport();
+		boolean succeeded = false;
+		try {
+			try (ResourcePack pack = resources == null ? ResourcePack.open() : null) {
+				if (resources != null) {
+					manifest = resources.getManifest();
+				} else if (pack != null) {
+					manifest = pack.getManifest();
+					readPackResources(pack);
+				} else {
+					manifest = readManifest();
+				}
+			}
+			chain = RegistryChain.read(getInternalStream(RegistryChain.INDEX_FILE));
+			installedVersion = RegistryChain.readStamp(workFolder);
+			
+			List<Job> jobs = new ArrayList<>();
+			for (FileEntry entry : fileMap) {
+				VerifyReport.Item item = report.add(VerifyReport.Kind.FILE, entry.outputName, entry.internalName);
+				jobs.add(new Job(UpdateTelemetry.Phase.VERIFY, entry.outputName, getWeight(entry), (codec, step) -> verifyFile(entry, item, step)));
+			}
+			for (RegistryEntry entry : registries) {
+				VerifyReport.Item item = report.add(VerifyReport.Kind.REGISTRY, entry.outputName, entry.internalName);
+				jobs.add(new Job(UpdateTelemetry.Phase.VERIFY, entry.outputName, getWeight(entry), (codec, step) -> verifyRegistry(entry, item, codec, step)));
+			}
+			for (RegistryEntry entry : forcedRegistries) {
+				VerifyReport.Item item = report.add(VerifyReport.Kind.FORCED_REGISTRY, entry.outputName, entry.internalName);
+				jobs.add(new Job(UpdateTelemetry.Phase.VERIFY, entry.outputName, getWeight(entry), (codec, step) -> verifyForcedRegistry(entry, item, codec, step)));
+			}
+			// A single file cannot be hashed by many threads, so the largest ones must start first
+			jobs.sort((a, b) -> Long.compare(b.weight, a.weight));
+			
+			progressTotal = 0;
+			progressDone.set(0);
+			lastProgressTime.set(System.nanoTime());
+			for (Job job : jobs) progressTotal += job.weight;
+			runJobs(jobs);
+			reportProgress();
+			report.finish(installedVersion, chain.getLatest());
+			succeeded = true;
+		} finally {
+			telemetry.finish(succeeded);
+		}
+		
+		if (listener != null) {
+			listener.message(String.format(Locale.ROOT, "Verified %d files and registries, found %d problems in %.2f s", 
+					report.getItems().size(), report.getProblems().size(), report.getDuration() / 1e9));
+		}
+		return report;
+	}
+	
+	/**
+	 * Repairs the problems found by {@link #verify()}: only the files that are missing or different are extracted,
+	 * and only the registries that lack entries get them, from all the patches of the {@link RegistryChain}.
+	 * Otherwise it is the same as an update, so it can be {@link #setTransactional(boolean) transactional}.
+	 * If no problem can be repaired, nothing is done.
+	 * @param report
+	 * @throws Exception
+	 */
+	public void repair(VerifyReport report) throws Exception {
+		boolean repairable = false;
+		for (VerifyReport.Item item : report.getProblems()) {
+			repairable |= item.isRepairable();
+		}
+		if (!repairable) return;
+		repairing = report;
+		try {
+			call();
+		} finally {
+			repairing = null;
+		}
+		report.setRepaired(true);
+	}
+	
+	private void update() throws Exception {
+		List<FileEntry> files = fileMap;
+		List<RegistryEntry> appended = registries;
+		List<RegistryEntry> forced = forcedRegistries;
+		if (repairing != null) {
+			files = new ArrayList<>();
+			for (FileEntry entry : fileMap) {
+				if (repairing.needsRepair(VerifyReport.Kind.FILE, entry.outputName, entry.internalName)) files.add(entry);
+			}
+			appended = new ArrayList<>();
+			Set<String> appendedOutputs = new HashSet<>();
+			for (RegistryEntry entry : registries) {
+				if (repairing.needsRepair(VerifyReport.Kind.REGISTRY, entry.outputName, entry.internalName)) {
+					appended.add(entry);
+					appendedOutputs.add(entry.outputName);
+				}
+			}
+			// The added entries can hide the ones replaced in the same registry, so they are replaced again
+			forced = new ArrayList<>();
+			for (RegistryEntry entry : forcedRegistries) {
+				if (appendedOutputs.contains(entry.outputName) 
+						|| repairing.needsRepair(VerifyReport.Kind.FORCED_REGISTRY, entry.outputName, entry.internalName)) {
+					forced.add(entry);
+				}
+			}
+		}
+		
+		// Registries are compacted after all their other modifications
+		Set<String> compacted = new LinkedHashSet<>();
+		if (compactRegistries) {
+			for (RegistryEntry entry : appended) compacted.add(entry.outputName);
+			for (RegistryEntry entry : forced) compacted.add(entry.outputName);
+		}
+		
+		// Jobs are listed in the order they must be executed: extractions, then added entries, then replaced entries
+		List<Job> jobs = new ArrayList<>();
+		try (ResourcePack pack = resources == null ? ResourcePack.open() : null) {
+			// With shared resources, the pack has already been decompressed
+			List<ResourcePack.Entry> packEntries = null;
+			if (resources != null) {
+				packEntries = resources.getPackEntries();
+				manifest = resources.getManifest();
+			} else if (pack != null) {
+				packEntries = pack.getEntries();
+				manifest = pack.getManifest();
+			} else {
+				manifest = readManifest();
+			}
+			if (packEntries == null) {
+				for (FileEntry entry : files) {
+					jobs.add(new Job(UpdateTelemetry.Phase.EXTRACT, entry.outputName, getWeight(entry), (codec, step) -> extractFile(entry, step)));
+				}
+			}
+			for (RegistryEntry entry : appended) {
+				jobs.add(new Job(UpdateTelemetry.Phase.APPEND, entry.outputName, getWeight(entry), (codec, step) -> appendRegistry(entry, codec, step)));
+			}
+			for (RegistryEntry entry : forced) {
+				jobs.add(new Job(UpdateTelemetry.Phase.REPLACE, entry.outputName, getWeight(entry), (codec, step) -> replaceRegistry(entry, codec, step)));
+			}
+			for (String outputName : compacted) {
+				long weight = Math.max(1, new File(workFolder, outputName).length());
+				jobs.add(new Job(UpdateTelemetry.Phase.COMPACT, outputName, weight, (codec, step) -> compactRegistry(outputName, codec, step)));
+			}
+			
+			// Progress is measured in bytes, so every subtask must be weighed before any of them starts
+			progressTotal = 0;
+			progressDone.set(0);
+			lastProgressTime.set(System.nanoTime());
+			for (Job job : jobs) progressTotal += job.weight;
+			if (packEntries != null) {
+				for (FileEntry entry : files) progressTotal += getWeight(entry);
+				extractPack(pack, packEntries, files);
+			}
+		}
+		// Only needed by the registry subtasks, so with a pack it is read after extracting it
+		chain = RegistryChain.read(getInternalStream(RegistryChain.INDEX_FILE));
+		installedVersion = RegistryChain.readStamp(workFolder);
+		
+		runJobs(jobs);
+		
+		// If the update fails, the stamp keeps the old version, so the next one adds the same patches again
+		if (chain.getLatest() != null && !appended.isEmpty()) {
+			RegistryChain.writeStamp(workFolder, chain.getLatest());
+			output.track(new File(workFolder, RegistryChain.STAMP_FILE).toPath());
+		}
+		reportProgress();
+	}
+	
+	private void runJobs(List<Job> jobs) throws Exception {
+		if (workerCount <= 1) {
+			RegistryCodec codec = new RegistryCodec();
+			for (Job job : jobs) {
+				runJob(job, codec);
+			}
+			return;
+		}
+		
+		// Jobs that write the same file are chained, so they keep their order; different chains run concurrently
+		Map<File, List<Job>> chains = new LinkedHashMap<>();
+		for (Job job : jobs) {
+			File key = new File(workFolder, job.outputName).getAbsoluteFile().toPath().normalize().toFile();
+			chains.computeIfAbsent(key, k -> new ArrayList<>()).add(job);
+		}
+		
+		if (chains.isEmpty()) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(workerCount, chains.size()), runnable -> {
+			Thread thread = new Thread(runnable, "updater-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+			for (List<Job> chain : chains.values()) {
+				completion.submit(() -> {
+					RegistryCodec codec = new RegistryCodec();
+					for (Job job : chain) {
+						runJob(job, codec);
+					}
+					return null;
+				});
+			}
+			for (int i = 0; i < chains.size(); i++) {
+				try {
+					completion.take().get();
+				} catch (ExecutionException e) {
+					// Stop everything at the first error, like the sequential update would
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/** Executes a job, measuring it with the telemetry; what the codec reads and writes is added to the step. */
+	private void runJob(Job job, RegistryCodec codec) throws Exception {
+		UpdateTelemetry.Step step = telemetry.begin(job.phase, job.outputName);
+		long readBytes = codec.getReadBytes();
+		long writtenBytes = codec.getWrittenBytes();
+		long parsedEntries = codec.getParsedEntries();
+		long writtenEntries = codec.getWrittenEntries();
+		try {
+			job.action.run(codec, step);
+		} catch (Exception e) {
+			step.result = UpdateTelemetry.Result.FAILED;
+			throw e;
+		} finally {
+			step.bytesRead += codec.getReadBytes() - readBytes;
+			step.bytesWritten += codec.getWrittenBytes() - writtenBytes;
+			step.entriesParsed += codec.getParsedEntries() - parsedEntries;
+			step.entriesWritten += codec.getWrittenEntries() - writtenEntries;
+			telemetry.end(step);
+		}
+		advanceProgress(job.weight);
+	}
+	
+	/** Returns the size of a file to extract, or 1 if it is not known. */
+	private long getWeight(FileEntry entry) {
+		ResourceManifest.Entry manifestEntry = manifest.get(entry.internalName);
+		return manifestEntry != null ? Math.max(1, manifestEntry.size) : 1;
+	}
+	
+	/** Returns the size of the installed registry plus the size of the new entries, if known. */
+	private long getWeight(RegistryEntry entry) {
+		ResourceManifest.Entry manifestEntry = manifest.get(entry.internalName);
+		return Math.max(1, new File(workFolder, entry.outputName).length() + (manifestEntry != null ? manifestEntry.size : 0));
+	}
+	
+	/**
+	 * Adds the weight of a finished subtask to the progress, and reports it if the progress interval has passed.
+	 * The last subtask is not reported here, but when all of them have finished.
+	 */
+	private void advanceProgress(long weight) {
+		long done = progressDone.addAndGet(weight);
+		if (listener == null || done >= progressTotal) return;
+		long now = System.nanoTime();
+		long last = lastProgressTime.get();
+		if (now - last >= progressInterval * 1000000 && lastProgressTime.compareAndSet(last, now)) {
+			reportProgress();
+		}
+	}
+	
+	private void reportProgress() {
+		if (listener == null) return;
+		// Read the counter inside the lock, so reports from different threads never go backwards
+		synchronized (lastProgressTime) {
+			listener.progress(Math.min(progressDone.get(), progressTotal), progressTotal);
+		}
+	}
+	
+	private void abortTransaction() {
+		try {
+			transaction.abort();
+		} catch (IOException e) {
+			// The installation was not modified, the staging folder is deleted by the next update
+		}
+	}
+	
+	private void writeTelemetry(boolean succeeded) throws IOException {
+		try {
+			Files.createDirectories(summaryFile.getAbsoluteFile().toPath().getParent());
+			// The previous version of a transactional update might share the file, so it is not overwritten in place
+			Files.deleteIfExists(summaryFile.toPath());
+			telemetry.write(summaryFile.toPath());
+		} catch (IOException e) {
+			// The summary is optional, it must not hide the error of the update
+			if (succeeded) throw e;
+		}
+	}
+	
+	private void updateSummary() {
+		if (listener == null) return;
+		String message = String.format("Extracted %d files (%d bytes, %d patched, %d linked), skipped %d unchanged files (%d bytes)",
+				writtenFiles.get(), writtenBytes.get(), patchedFiles.get(), linkedFiles.get(), skippedFiles.get(), skippedBytes.get());
+		if (compactRegistries) {
+			message += String.format(", removed %d lines (%d bytes) from the registries", compactedLines.get(), compactedBytes.get());
+		}
+		message += String.format(Locale.ROOT, " in %.2f s", telemetry.getDuration() / 1e9);
+		listener.message(message);
+	}
+	
+	/**
+	 * Returns true (and counts it as skipped) if the file does not need to be extracted, because it is optional 
+	 * and exists, or because it is already installed with the same contents.
+	 */
+	private boolean isInstalled(FileEntry entry, File destFile, UpdateTelemetry.Step step) throws IOException {
+		if ((entry.optional && destFile.exists()) || manifest.matches(entry.internalName, destFile.toPath())) {
+			step.result = UpdateTelemetry.Result.SKIPPED;
+			skippedFiles.incrementAndGet();
+			skippedBytes.addAndGet(destFile.length());
+			return true;
+		}
+		return false;
+	}
+	
+	private void extractFile(FileEntry entry, UpdateTelemetry.Step step) throws IOException {
+		File destFile = new File(workFolder, entry.outputName);
+		if (isInstalled(entry, destFile, step)) return;
+		
+		Files.createDirectories(destFile.toPath().getParent());
+		ResourceManifest.Entry manifestEntry = manifest.get(entry.internalName);
+		try (InputStream input = getInternalStream(entry.internalName)) {
+			long size = output.copy(input, destFile.toPath(), manifestEntry != null ? manifestEntry.size : -1);
+			step.bytesRead += size;
+			step.bytesWritten += size;
+			writtenBytes.addAndGet(size);
+		}
+		writtenFiles.incrementAndGet();
+	}
+	
+	/**
+	 * Extracts all the files from the resource pack. As the pack can only be read in order, the files are extracted
+	 * in the order they are stored, and the registries used by the other subtasks are kept in memory. Contents stored
+	 * once for many files are only written once, the other files are linked to it.
+	 * @param pack The pack, or null to read the entries from the shared resources.
+	 * @param entries The entries of the pack.
+	 * @param fileEntries The files to extract.
+	 * @throws IOException
+	 */
+	private void extractPack(ResourcePack pack, List<ResourcePack.Entry> entries, List<FileEntry> fileEntries) throws IOException {
+		Map<String, ResourcePack.Entry> packEntries = new HashMap<>();
+		for (ResourcePack.Entry packEntry : entries) {
+			packEntries.put(packEntry.path, packEntry);
+		}
+		// Check everything is there before writing anything
+		Map<String, List<FileEntry>> files = new HashMap<>();
+		for (FileEntry entry : fileEntries) {
+			if (!packEntries.containsKey(entry.internalName) && !packEntries.containsKey(DeltaPatch.getPath(entry.internalName))) {
+				throw new IOException("Missing resource: " + entry.internalName);
+			}
+			files.computeIfAbsent(entry.internalName, k -> new ArrayList<>()).add(entry);
+		}
+		Set<String> kept = getRegistryResources();
+		
+		// Patches are stored first, so we know which files will be patched before reaching them
+		Map<FileEntry, DeltaPatch> patches = new HashMap<>();
+		for (ResourcePack.Entry packEntry : entries) {
+			String target = DeltaPatch.getTarget(packEntry.path);
+			if (target == null) break;
+			List<FileEntry> outputs = files.get(target);
+			if (outputs == null) continue;
+			
+			DeltaPatch patch = new DeltaPatch(readPackEntry(pack, packEntry));
+			ResourcePack.Entry full = packEntries.get(target);
+			if (full == null) {
+				manifest.add(new ResourceManifest.Entry(target, patch.getTargetSize(), patch.getTargetSha256()));
+			} else if (!MessageDigest.isEqual(full.sha256, patch.getTargetSha256())) {
+				// The patch is for another version, it is never used
+				continue;
+			}
+			for (FileEntry entry : outputs) {
+				Path destPath = new File(workFolder, entry.outputName).toPath();
+				if ((entry.optional && Files.exists(destPath)) || manifest.matches(target, destPath)) {
+					continue;
+				}
+				if (patch.matchesBase(destPath)) {
+					patches.put(entry, patch);
+				} else if (full == null) {
+					throw new IOException(entry.outputName + " is not the version this update was made for, use the full updater instead");
+				}
+			}
+		}
+		
+		// Entries with the same contents are only stored once, in the first of them
+		Map<ResourcePack.Entry, List<ResourcePack.Entry>> sameContents = new HashMap<>();
+		for (Map.Entry<ResourcePack.Entry, ResourcePack.Entry> stored : ResourcePack.getStoredEntries(entries).entrySet()) {
+			sameContents.computeIfAbsent(stored.getValue(), k -> new ArrayList<>()).add(stored.getKey());
+		}
+		
+		for (ResourcePack.Entry packEntry : entries) {
+			List<ResourcePack.Entry> copies = sameContents.get(packEntry);
+			if (copies == null) continue;
+			List<FileEntry> outputs = new ArrayList<>();
+			List<String> keptPaths = new ArrayList<>();
+			for (ResourcePack.Entry copy : copies) {
+				List<FileEntry> copyOutputs = files.remove(copy.path);
+				if (copyOutputs != null) outputs.addAll(copyOutputs);
+				// The patches of the registries are small, so all of them are kept
+				if (kept.contains(copy.path) || copy.path.startsWith(RegistryChain.FOLDER + "/")) keptPaths.add(copy.path);
+			}
+			if (outputs.isEmpty() && keptPaths.isEmpty()) continue;
+			
+			// Only entries that are kept are decompressed into memory, the rest are streamed to the first file
+			byte[] data = null;
+			if (!keptPaths.isEmpty() || pack == null) {
+				data = readPackEntry(pack, packEntry);
+				for (String path : keptPaths) {
+					unpackedResources.put(path, data);
+				}
+			}
+			Path written = null;
+			for (FileEntry entry : outputs) {
+				written = extractPackFile(entry, pack, packEntry, data, patches.get(entry), written);
+			}
+		}
+		// The ones left only have a patch in the pack
+		for (List<FileEntry> outputs : files.values()) {
+			for (FileEntry entry : outputs) {
+				extractPackFile(entry, pack, null, null, patches.get(entry), null);
+			}
+		}
+	}
+	
+	/** Returns the paths of the registries used by the subtasks and their snapshots, relative to the `resources` package. */
+	private Set<String> getRegistryResources() {
+		Set<String> paths = new HashSet<>();
+		for (RegistryEntry entry : registries) {
+			paths.add(entry.internalName);
+			paths.add(entry.internalName + RegistrySnapshot.EXTENSION);
+		}
+		for (RegistryEntry entry : forcedRegistries) {
+			paths.add(entry.internalName);
+			paths.add(entry.internalName + RegistrySnapshot.EXTENSION);
+		}
+		return paths;
+	}
+	
+	private byte[] readPackEntry(ResourcePack pack, ResourcePack.Entry packEntry) throws IOException {
+		return pack != null ? pack.read(packEntry) : resources.read(packEntry.path);
+	}
+	
+	/** Same as {@link #extractFile(FileEntry, ResourcePack, ResourcePack.Entry, byte[], DeltaPatch, UpdateTelemetry.Step)}, measured as a step. */
+	private Path extractPackFile(FileEntry entry, ResourcePack pack, ResourcePack.Entry packEntry, byte[] data, DeltaPatch patch, 
+			Path written) throws IOException {
+		UpdateTelemetry.Step step = telemetry.begin(UpdateTelemetry.Phase.EXTRACT, entry.outputName);
+		try {
+			written = extractFile(entry, pack, packEntry, data, patch, written, step);
+		} catch (IOException | RuntimeException e) {
+			step.result = UpdateTelemetry.Result.FAILED;
+			throw e;
+		} finally {
+			telemetry.end(step);
+		}
+		advanceProgress(getWeight(entry));
+		return written;
+	}
+	
+	/**
+	 * Extracts a file from the resource pack, or patches the installed file if possible.
+	 * @param entry
+	 * @param pack
+	 * @param packEntry The file in the pack, or null if the pack only has its patch.
+	 * @param data The contents of the file if they were already decompressed, or null to decompress them from the pack.
+	 * @param patch The patch to apply to the installed file, or null if it must be extracted.
+	 * @param written A file with the same contents already written by this update, or null.
+	 * @param step
+	 * @return The file with these contents written by this update, or null if there is none yet.
+	 * @throws IOException
+	 */
+	private Path extractFile(FileEntry entry, ResourcePack pack, ResourcePack.Entry packEntry, byte[] data, DeltaPatch patch, 
+			Path written, UpdateTelemetry.Step step) throws IOException {
+		File destFile = new File(workFolder, entry.outputName);
+		if (isInstalled(entry, destFile, step)) return written;
+		
+		Path destPath = destFile.toPath();
+		if (written != null) {
+			linkFile(written, destPath, step);
+			return written;
+		}
+		if (patch != null) {
+			try {
+				long baseSize = destFile.length();
+				applyPatch(destPath, patch);
+				output.track(destPath);
+				step.result = UpdateTelemetry.Result.PATCHED;
+				step.bytesRead += baseSize;
+				step.bytesWritten += patch.getTargetSize();
+				writtenBytes.addAndGet(patch.getTargetSize());
+				writtenFiles.incrementAndGet();
+				patchedFiles.incrementAndGet();
+				return destPath;
+			} catch (IOException e) {
+				// Extract the full file instead, if we have it
+				if (packEntry == null) throw e;
+			}
+		}
+		
+		Files.createDirectories(destPath.getParent());
+		if (transaction != null) {
+			transaction.unlink(destPath, false);
+		}
+		try (FileChannel channel = output.create(destPath, packEntry.size)) {
+			if (data != null) {
+				ByteBuffer buffer = ByteBuffer.wrap(data);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} else {
+				pack.transferTo(packEntry, channel);
+			}
+		}
+		step.bytesRead += packEntry.size;
+		step.bytesWritten += packEntry.size;
+		writtenBytes.addAndGet(packEntry.size);
+		writtenFiles.incrementAndGet();
+		return destPath;
+	}
+	
+	/**
+	 * Writes a file with the same contents as another file written by this update: as a hard link to it if
+	 * {@link #setLinkDuplicates(boolean) enabled} and supported, or as a copy otherwise.
+	 * @param source
+	 * @param destPath
+	 * @param step
+	 * @throws IOException
+	 */
+	private void linkFile(Path source, Path destPath, UpdateTelemetry.Step step) throws IOException {
+		Files.createDirectories(destPath.getParent());
+		if (transaction != null) {
+			transaction.unlink(destPath, false);
+		}
+		Files.deleteIfExists(destPath);
+		if (linkDuplicates) {
+			try {
+				Files.createLink(destPath, source);
+				output.track(destPath);
+				step.result = UpdateTelemetry.Result.LINKED;
+				writtenFiles.incrementAndGet();
+				linkedFiles.incrementAndGet();
+				return;
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				// Copy it instead
+			}
+		}
+		Files.copy(source, destPath, StandardCopyOption.REPLACE_EXISTING);
+		output.track(destPath);
+		long size = Files.size(destPath);
+		step.bytesRead += size;
+		step.bytesWritten += size;
+		writtenBytes.addAndGet(size);
+		writtenFiles.incrementAndGet();
+	}
+	
+	/**
+	 * Applies a patch to an installed file. The installed file is the base of the patch, so the result is written
+	 * next to it and then moved over it.
+	 * @param destPath
+	 * @param patch
+	 * @throws IOException
+	 */
+	private void applyPatch(Path destPath, DeltaPatch patch) throws IOException {
+		Path tempPath = destPath.resolveSibling(destPath.getFileName() + ".tmp");
+		try (FileChannel base = FileChannel.open(destPath, StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(tempPath, 
+						StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			patch.apply(base, output);
+		} catch (IOException e) {
+			Files.deleteIfExists(tempPath);
+			throw e;
+		}
+		
+		try {
+			Files.move(tempPath, destPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempPath, destPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Returns the path of the index of an installed registry, a {@link RegistrySnapshot} kept in the
+	 * `.updater` folder so the registry does not need to be parsed on every update.
+	 * @param outputPath Path to the registry file, relative to SMFX base folder.
+	 * @return
+	 */
+	private Path getRegistryIndexPath(String outputPath) {
+		return new File(workFolder, INDEX_FOLDER).toPath().resolve(outputPath + RegistrySnapshot.EXTENSION);
+	}
+	
+	private void appendRegistry(RegistryEntry entry, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		File regFile = new File(workFolder, entry.outputName);
+		if (!regFile.exists()) {
+			step.result = UpdateTelemetry.Result.SKIPPED;
+			return;
+		}
+		
+		// Only the patches released after the installed version are needed
+		List<String> patches = new ArrayList<>();
+		// A repair checked the registry against all of them, so all are needed
+		for (String internalPath : chain.getPatches(entry.internalName, repairing != null ? null : installedVersion)) {
+			if (hasInternalResource(internalPath)) patches.add(internalPath);
+		}
+		if (patches.isEmpty()) {
+			step.result = UpdateTelemetry.Result.SKIPPED;
+			return;
+		}
+		Path regPath = regFile.toPath();
+		
+		// The whole registry is only parsed if it changed since the last update, otherwise we use its index
+		Path indexPath = getRegistryIndexPath(entry.outputName);
+		RegistrySnapshot index = RegistrySnapshot.find(regPath, indexPath);
+		NameRegistry registry = null;
+		if (index == null) {
+			registry = new NameRegistry();
+			codec.read(regPath, registry);
+		}
+		
+		NameRegistry inputRegistry = readInternalRegistry(patches, codec, step);
+		NameArena inputArena = inputRegistry.arena;
+		NameRegistry replaced = readForcedEntries(entry.outputName, codec, step);
+		
+		boolean addedBlankLine = false;
+		long originalLength = regFile.length();
+		if (transaction != null) {
+			transaction.unlink(regPath, true);
+		}
+		
+		output.track(regPath);
+		try (FileChannel channel = FileChannel.open(regPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			codec.startOutput(channel);
+			IntNameMap inputNames = inputRegistry.names;
+			for (int i = 0; i < inputNames.entryCount(); i++) 
+			{
+				if (!inputNames.isLive(i)) continue;
+				int hash = inputNames.keyAt(i);
+				int name = inputNames.refAt(i);
+				// Before we excluded names that already existed, but we want to be able to replace them
+				// Adding the new entries at the end ensures the new names will have priority, 
+				// while keeping compatibility with the old names 
+				//if (true /*registry.getName(hash) == null*/) {
+				boolean exists = index != null ? 
+						index.hasName(hash, inputArena.array(), inputArena.start(name), inputArena.length(name)) : 
+						registry.names.containsEntry(hash, inputArena, name);
+				// A forced registry of the same file would remove the entry again, leaving only the blank lines
+				if (!exists && !isReplaced(replaced, hash, inputArena, name)) {
+					if (!addedBlankLine) {
+						codec.newLine();
+						addedBlankLine = true;
+					}
+					codec.newLine();
+					// Names ending with ~ always have their hash written
+					codec.writeEntry(inputArena, name, hash, inputArena.endsWith(name, '~'));
+				}
+			}
+			
+			// If we added it it means there were new names
+			if (addedBlankLine) {
+				codec.newLine();
+			}
+			codec.flush();
+		}
+		
+		// Keep the index up to date, parsing only the lines we added
+		if (addedBlankLine || index == null) {
+			if (registry == null) {
+				registry = index.toRegistry();
+			}
+			if (addedBlankLine) {
+				try (FileChannel input = FileChannel.open(regPath, StandardOpenOption.READ)) {
+					input.position(originalLength);
+					codec.read(input, registry);
+				}
+			}
+			Files.createDirectories(indexPath.getParent());
+			RegistrySnapshot.save(registry, regPath, indexPath);
+			output.track(indexPath);
+		}
+	}
+	
+	private void compactRegistry(String outputName, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		File regFile = new File(workFolder, outputName);
+		if (!regFile.exists()) {
+			step.result = UpdateTelemetry.Result.SKIPPED;
+			return;
+		}
+		
+		Path regPath = regFile.toPath();
+		RegistryCodec.Compaction compaction = codec.compact(regPath);
+		output.track(regPath);
+		compactedLines.addAndGet(compaction.removedLines);
+		compactedBytes.addAndGet(compaction.savedBytes);
+		
+		// The index is no longer valid if lines were removed
+		Path indexPath = getRegistryIndexPath(outputName);
+		if (compaction.removedLines != 0 && Files.exists(indexPath)) {
+			NameRegistry registry = new NameRegistry();
+			codec.read(regPath, registry);
+			RegistrySnapshot.save(registry, regPath, indexPath);
+			output.track(indexPath);
+		}
+	}
+	
+	/**
+	 * Decompresses the entries of the pack that are needed to verify the installation: the patches and the registries.
+	 * The other files are compared with the hashes in the table of the pack.
+	 * @param pack
+	 * @throws IOException
+	 */
+	private void readPackResources(ResourcePack pack) throws IOException {
+		Set<String> kept = getRegistryResources();
+		Map<ResourcePack.Entry, ResourcePack.Entry> stored = ResourcePack.getStoredEntries(pack.getEntries());
+		Map<ResourcePack.Entry, List<String>> needed = new HashMap<>();
+		for (ResourcePack.Entry packEntry : pack.getEntries()) {
+			if (DeltaPatch.getTarget(packEntry.path) != null || kept.contains(packEntry.path) || packEntry.path.startsWith(RegistryChain.FOLDER + "/")) {
+				needed.computeIfAbsent(stored.get(packEntry), k -> new ArrayList<>()).add(packEntry.path);
+			}
+		}
+		// Stored entries must be read in order
+		for (ResourcePack.Entry packEntry : pack.getEntries()) {
+			List<String> paths = needed.get(packEntry);
+			if (paths == null) continue;
+			byte[] data = pack.read(packEntry);
+			for (String path : paths) {
+				unpackedResources.put(path, data);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the patch bundled for a file, or null if there is none.
+	 * @param internalPath Path to the file, relative to the `resources` package.
+	 * @return
+	 * @throws IOException
+	 */
+	private DeltaPatch readPatch(String internalPath) throws IOException {
+		try (InputStream input = getInternalStream(DeltaPatch.getPath(internalPath))) {
+			return input == null ? null : new DeltaPatch(input.readAllBytes());
+		}
+	}
+	
+	private void verifyFile(FileEntry entry, VerifyReport.Item item, UpdateTelemetry.Step step) throws IOException {
+		step.result = UpdateTelemetry.Result.VERIFIED;
+		Path destPath = new File(workFolder, entry.outputName).toPath();
+		ResourceManifest.Entry expected = manifest.get(entry.internalName);
+		item.repairable = expected != null || hasInternalResource(entry.internalName);
+		DeltaPatch patch = readPatch(entry.internalName);
+		if (expected == null && patch != null) {
+			// An updater built with only the patch knows the hash of the patched file
+			expected = new ResourceManifest.Entry(entry.internalName, patch.getTargetSize(), patch.getTargetSha256());
+		}
+		if (expected != null) {
+			item.expectedSize = expected.size;
+		}
+		if (!Files.isRegularFile(destPath)) {
+			item.status = VerifyReport.Status.MISSING;
+			return;
+		}
+		item.size = Files.size(destPath);
+		// Optional files are only extracted if they don't exist, so they might have been modified
+		if (entry.optional) return;
+		if (expected == null) {
+			item.status = VerifyReport.Status.UNVERIFIED;
+			return;
+		}
+		if (item.size == expected.size) {
+			step.bytesRead += item.size;
+			if (MessageDigest.isEqual(ResourceManifest.sha256(destPath), expected.sha256)) return;
+		}
+		if (patch != null && patch.matchesBase(destPath)) {
+			item.status = VerifyReport.Status.OUTDATED;
+			item.repairable = true;
+		} else {
+			item.status = VerifyReport.Status.CORRUPTED;
+		}
+	}
+	
+	/**
+	 * Reads an installed registry, unless its index is up to date.
+	 * @param regPath
+	 * @param index The index of the registry, or null if there is none.
+	 * @param codec
+	 * @return The registry, or null if the index must be used.
+	 * @throws IOException
+	 */
+	private static NameRegistry readInstalledRegistry(Path regPath, RegistrySnapshot index, RegistryCodec codec) throws IOException {
+		if (index != null) return null;
+		NameRegistry registry = new NameRegistry();
+		codec.read(regPath, registry);
+		return registry;
+	}
+	
+	private void verifyRegistry(RegistryEntry entry, VerifyReport.Item item, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		step.result = UpdateTelemetry.Result.VERIFIED;
+		Path regPath = new File(workFolder, entry.outputName).toPath();
+		if (!Files.isRegularFile(regPath)) {
+			// Entries are only added to installed registries, so it cannot be repaired
+			item.status = VerifyReport.Status.MISSING;
+			return;
+		}
+		item.size = Files.size(regPath);
+		
+		List<String> patches = new ArrayList<>();
+		for (String internalPath : chain.getPatches(entry.internalName, null)) {
+			if (hasInternalResource(internalPath)) patches.add(internalPath);
+		}
+		if (patches.isEmpty()) return;
+		NameRegistry inputRegistry = readInternalRegistry(patches, codec, step);
+		// Entries replaced by a forced registry of the same file are never added, they are checked by it
+		NameRegistry replaced = readForcedEntries(entry.outputName, codec, step);
+		
+		RegistrySnapshot index = RegistrySnapshot.find(regPath, getRegistryIndexPath(entry.outputName));
+		NameRegistry registry = readInstalledRegistry(regPath, index, codec);
+		NameArena inputArena = inputRegistry.arena;
+		IntNameMap inputNames = inputRegistry.names;
+		for (int i = 0; i < inputNames.entryCount(); i++) {
+			if (!inputNames.isLive(i)) continue;
+			int hash = inputNames.keyAt(i);
+			int name = inputNames.refAt(i);
+			// The same check as when adding the entries
+			boolean exists = index != null ? 
+					index.hasName(hash, inputArena.array(), inputArena.start(name), inputArena.length(name)) : 
+					registry.names.containsEntry(hash, inputArena, name);
+			if (!exists && !isReplaced(replaced, hash, inputArena, name)) {
+				++item.missingEntries;
+			}
+		}
+		if (item.missingEntries != 0) {
+			item.status = VerifyReport.Status.OUTDATED;
+			item.repairable = true;
+		}
+	}
+	
+	/**
+	 * Returns all the entries of the forced registries of the given file, for {@link #isReplaced(NameRegistry, int, NameArena, int)}.
+	 * Every name is added with its hash, so it can be found even if its hash is not written in the registry.
+	 * @param outputName
+	 * @param codec
+	 * @param step
+	 * @return
+	 * @throws IOException
+	 */
+	private NameRegistry readForcedEntries(String outputName, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		NameRegistry replaced = new NameRegistry();
+		for (RegistryEntry forced : forcedRegistries) {
+			if (!forced.outputName.equals(outputName)) continue;
+			NameRegistry input = readInternalRegistry(forced.internalName, codec, step);
+			NameArena arena = input.arena;
+			IntNameMap names = input.names;
+			for (int i = 0; i < names.entryCount(); i++) {
+				if (!names.isLive(i)) continue;
+				int ref = names.refAt(i);
+				replaced.add(arena.array(), arena.start(ref), arena.length(ref), names.keyAt(i));
+			}
+		}
+		return replaced;
+	}
+	
+	/**
+	 * Returns true if a forced registry removes the lines with the given entry, because it has its hash or its name;
+	 * see {@link RegistryCodec#replaceEntries(Path, NameRegistry)}.
+	 * @param replaced The entries returned by {@link #readForcedEntries(String, RegistryCodec, UpdateTelemetry.Step)}.
+	 * @param hash
+	 * @param arena
+	 * @param name
+	 * @return
+	 */
+	private static boolean isReplaced(NameRegistry replaced, int hash, NameArena arena, int name) {
+		return replaced.names.containsKey(hash) || replaced.hashes.indexOf(arena.array(), arena.start(name), arena.length(name)) != -1;
+	}
+	
+	private void verifyForcedRegistry(RegistryEntry entry, VerifyReport.Item item, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		step.result = UpdateTelemetry.Result.VERIFIED;
+		Path regPath = new File(workFolder, entry.outputName).toPath();
+		if (!Files.isRegularFile(regPath)) {
+			item.status = VerifyReport.Status.MISSING;
+			return;
+		}
+		item.size = Files.size(regPath);
+		
+		NameRegistry inputRegistry = readInternalRegistry(entry.internalName, codec, step);
+		RegistrySnapshot index = RegistrySnapshot.find(regPath, getRegistryIndexPath(entry.outputName));
+		NameRegistry registry = readInstalledRegistry(regPath, index, codec);
+		// After replacing, every hash has the name of the input, and every name with an explicit hash has its hash
+		inputRegistry.forEach((hash, name) -> {
+			Integer inputHash = inputRegistry.getHash(name);
+			boolean replaced = index != null ? 
+					index.hasName(hash, name) && (inputHash == null || inputHash.equals(index.getHash(name))) : 
+					registry.hasName(hash, name) && (inputHash == null || inputHash.equals(registry.getHash(name)));
+			if (!replaced) ++item.missingEntries;
+		});
+		if (item.missingEntries != 0) {
+			item.status = VerifyReport.Status.OUTDATED;
+			item.repairable = true;
+		}
+	}
+	
+	private void replaceRegistry(RegistryEntry entry, RegistryCodec codec, UpdateTelemetry.Step step) throws IOException {
+		File regFile = new File(workFolder, entry.outputName);
+		if (!regFile.exists()) {
+			step.result = UpdateTelemetry.Result.SKIPPED;
+			return;
+		}
+		
+		// Only the new entries are kept in memory, the registry is rewritten line by line
+		NameRegistry inputRegistry = readInternalRegistry(entry.internalName, codec, step);
+		Path regPath = regFile.toPath();
+		if (codec.replaceEntries(regPath, inputRegistry)) {
+			output.track(regPath);
+			// The index saved when adding entries is no longer valid
+			Path indexPath = getRegistryIndexPath(entry.outputName);
+			if (Files.exists(indexPath)) {
+				NameRegistry registry = new NameRegistry();
+				codec.read(regPath, registry);
+				RegistrySnapshot.save(registry, regPath, indexPath);
+				output.track(indexPath);
+			}
+		} else {
+			// Every entry was already there
+			step.result = UpdateTelemetry.Result.SKIPPED;
+		}
+	}
+
+}
@@ -0,0 +1,227 @@
+package sporemodder.updater;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The result of checking an installation with {@link Updater#verify()}: the status of every file and registry of the
+ * {@link UpdatePlan}. It can be passed to {@link Updater#repair(VerifyReport)} to update only what has problems,
+ * and saved as JSON with {@link #write(Path)}.
+ * <p>
+ * Items can be added from many threads at the same time, but a single item must only be used by one thread.
+ */
+public class VerifyReport {
+
+	public enum Kind {
+		/** A file extracted from the resources, see {@link Updater#addFile(String, String)}. */
+		FILE,
+		/** A registry that gets the entries of the resources, see {@link Updater#modifyRegistry(String, String)}. */
+		REGISTRY,
+		/** A registry whose entries are replaced, see {@link Updater#forcedModifyRegistry(String, String)}. */
+		FORCED_REGISTRY;
+
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	public enum Status {
+		/** The file has the contents of the resources, or the registry has all the entries of its inputs. */
+		OK,
+		/** The file or registry does not exist. */
+		MISSING,
+		/** The file has different contents, that are not from a known older version. */
+		CORRUPTED,
+		/** The file is the version a bundled patch was made for, or the registry lacks some entries of its inputs. */
+		OUTDATED,
+		/** The resources have no size and hash for the file, so it cannot be checked. */
+		UNVERIFIED;
+
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/**
+	 * A single file or registry of the plan.
+	 */
+	public static class Item {
+		public final Kind kind;
+		/** Path to the file, relative to SMFX base folder. */
+		public final String path;
+		/** Path to the resource it is made from, relative to the `resources` package. */
+		public final String resource;
+		Status status = Status.OK;
+		long size = -1;
+		long expectedSize = -1;
+		long missingEntries;
+		boolean repairable;
+
+		Item(Kind kind, String path, String resource) {
+			this.kind = kind;
+			this.path = path;
+			this.resource = resource;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/** Returns true if the item is not installed as the plan expects; an item that cannot be checked is not a problem. */
+		public boolean isProblem() {
+			return status != Status.OK && status != Status.UNVERIFIED;
+		}
+
+		/** Returns the size of the installed file, or -1 if it does not exist. */
+		public long getSize() {
+			return size;
+		}
+
+		/** Returns the size of the file in the resources, or -1 if it is not known or the item is a registry. */
+		public long getExpectedSize() {
+			return expectedSize;
+		}
+
+		/** Returns how many entries of its inputs the registry does not have. */
+		public long getMissingEntries() {
+			return missingEntries;
+		}
+
+		/**
+		 * Returns true if {@link Updater#repair(VerifyReport)} can fix the problem. Missing registries cannot be repaired,
+		 * as the updater only adds entries to the installed ones.
+		 */
+		public boolean isRepairable() {
+			return repairable;
+		}
+	}
+
+	private final Instant startInstant = Instant.now();
+	private final long startTime = System.nanoTime();
+	private long endTime;
+	private final List<Item> items = Collections.synchronizedList(new ArrayList<>());
+	private String installedVersion;
+	private String latestVersion;
+	private boolean repaired;
+
+	Item add(Kind kind, String path, String resource) {
+		Item item = new Item(kind, path, resource);
+		items.add(item);
+		return item;
+	}
+
+	void finish(String installedVersion, String latestVersion) {
+		this.installedVersion = installedVersion;
+		this.latestVersion = latestVersion;
+		endTime = System.nanoTime();
+	}
+
+	void setRepaired(boolean repaired) {
+		this.repaired = repaired;
+	}
+
+	/** Returns how long the verification took, in nanoseconds. */
+	public long getDuration() {
+		return endTime - startTime;
+	}
+
+	/** Returns all the items, in the order of the plan. */
+	public List<Item> getItems() {
+		synchronized (items) {
+			return new ArrayList<>(items);
+		}
+	}
+
+	/** Returns the items that are not installed as the plan expects. */
+	public List<Item> getProblems() {
+		List<Item> problems = new ArrayList<>();
+		for (Item item : getItems()) {
+			if (item.isProblem()) problems.add(item);
+		}
+		return problems;
+	}
+
+	public boolean hasProblems() {
+		return !getProblems().isEmpty();
+	}
+
+	/**
+	 * Returns true if the item for the given file and resource must be repaired.
+	 * @param kind
+	 * @param path Path to the file, relative to SMFX base folder.
+	 * @param resource Path to the resource, relative to the `resources` package.
+	 * @return
+	 */
+	public boolean needsRepair(Kind kind, String path, String resource) {
+		for (Item item : getItems()) {
+			if (item.kind == kind && item.path.equals(path) && item.resource.equals(resource)) {
+				return item.isProblem() && item.repairable;
+			}
+		}
+		return false;
+	}
+
+	/** Returns the version in the stamp of the installation, or null if it has none; see {@link RegistryChain}. */
+	public String getInstalledVersion() {
+		return installedVersion;
+	}
+
+	/** Returns the newest version of the registry patches of the updater, or null if it has none. */
+	public String getLatestVersion() {
+		return latestVersion;
+	}
+
+	/** Returns true if the problems were repaired afterwards. */
+	public boolean isRepaired() {
+		return repaired;
+	}
+
+	/**
+	 * Writes the report and every item as a JSON object. Times are in milliseconds.
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(Path output) throws IOException {
+		List<Item> items = getItems();
+		int problems = 0;
+		int repairable = 0;
+		for (Item item : items) {
+			if (!item.isProblem()) continue;
+			++problems;
+			if (item.repairable) ++repairable;
+		}
+
+		try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			writer.write("{\n");
+			writer.write("  \"start\": " + UpdateTelemetry.quote(startInstant.toString()) + ",\n");
+			writer.write("  \"time\": " + UpdateTelemetry.millis(getDuration()) + ",\n");
+			writer.write("  \"installedVersion\": " + (installedVersion == null ? "null" : UpdateTelemetry.quote(installedVersion)) + ",\n");
+			writer.write("  \"latestVersion\": " + (latestVersion == null ? "null" : UpdateTelemetry.quote(latestVersion)) + ",\n");
+			writer.write("  \"checked\": " + items.size() + ",\n");
+			writer.write("  \"problems\": " + problems + ",\n");
+			writer.write("  \"repairable\": " + repairable + ",\n");
+			writer.write("  \"repaired\": " + repaired + ",\n");
+
+			writer.write("  \"items\": [");
+			String separator = "\n";
+			for (Item item : items) {
+				writer.write(separator);
+				writer.write("    {\"kind\": " + UpdateTelemetry.quote(item.kind.getName()) + ", \"path\": " + UpdateTelemetry.quote(item.path)
+						+ ", \"resource\": " + UpdateTelemetry.quote(item.resource) + ", \"status\": " + UpdateTelemetry.quote(item.status.getName())
+						+ ", \"size\": " + item.size + ", \"expectedSize\": " + item.expectedSize
+						+ ", \"missingEntries\": " + item.missingEntries + ", \"repairable\": " + item.repairable + "}");
+				separator = ",\n";
+			}
+			writer.write(items.isEmpty() ? "]\n" : "\n  ]\n");
+			writer.write("}\n");
+		}
+	}
+}